@@ -0,0 +1,343 @@
+package connect4Minimax4x4;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Arena {
+    // Headless self play: two strategies play many games against each other, on all cores.
+    //   java connect4Minimax4x4.Arena connect4|tictactoe nGames strategyA strategyB [options]
+    // A strategy is "minimax" (Connect4Strategy or TicTacToeStrategy), "random", "mcts" (Connect4MctsStrategy,
+    //   one worker, as the games already run in parallel), or the name of any class implementing
+    //   InterfaceStrategy with a constructor without arguments (e.g., another build).
+    // Options:
+    //   nCxnR      board size for connect4 (default 4x4)
+    //   random=N   open every game with N random moves (default 0)
+    //   book=file  open the games with the lines of file in turn, moves as in Perft (connect4: columns,
+    //              tictactoe: spots 3*iR+iC), e.g. "3322"
+    //   time=ms    per move limit of Connect4Strategy and Connect4MctsStrategy (default 0, no limit;
+    //              Connect4MctsStrategy then does its DEFAULT_PLAYOUTS)
+    //   depth=d    per move depth limit of Connect4Strategy (default none)
+    //   table=MB   transposition table of every Connect4Strategy (default 4)
+    //   threads=n  games played at once (default: the number of cores)
+    //   csv=file   one line per game, written as the games finish
+    // The two strategies take turns at moving first, and each opening is played once each way.
+    // Every thread has its own pair of strategies; a Connect4Strategy's table is cleared between games.
+    // A strategy that returns an illegal move (or none) loses the game.
+
+    static final String[] CSV_COLUMNS = { "game", "first", "second", "opening", "moves", "result", "plies",
+                                          "msFirst", "msSecond" };
+
+    private final boolean isConnect4;
+    private final int     nC, nR;
+    private final String  nameA, nameB;
+    private final int     timeMs, depth, tableMB;
+
+    // Results, from A's point of view
+    private final AtomicInteger winsA    = new AtomicInteger();
+    private final AtomicInteger draws    = new AtomicInteger();
+    private final AtomicInteger lossesA  = new AtomicInteger();
+    private final LatencyLog    latencyA = new LatencyLog();
+    private final LatencyLog    latencyB = new LatencyLog();
+    private PrintWriter         csv      = null;
+
+    Arena( boolean isConnect4, int nC, int nR, String nameA, String nameB, int timeMs, int depth, int tableMB ) {
+        this.isConnect4 = isConnect4;
+        this.nC         = nC;
+        this.nR         = nR;
+        this.nameA      = nameA;
+        this.nameB      = nameB;
+        this.timeMs     = timeMs;
+        this.depth      = depth;
+        this.tableMB    = tableMB;
+    }
+
+    public static void main( String[] args ) throws IOException, InterruptedException {
+        if ( args.length < 4 ) {
+            System.err.println("Usage: java connect4Minimax4x4.Arena connect4|tictactoe nGames strategyA strategyB"
+                             + " [nCxnR] [random=N] [book=file] [time=ms] [depth=d] [table=MB] [threads=n] [csv=file]");
+            return;
+        }
+        boolean isConnect4 = args[0].equalsIgnoreCase("connect4");
+        int     nGames     = Integer.parseInt(args[1]);
+        int     nC         = isConnect4 ? 4 : 3, nR = isConnect4 ? 4 : 3;
+        int     nRandom    = 0, timeMs = 0, depth = Integer.MAX_VALUE, tableMB = 4;
+        int     nThreads   = Runtime.getRuntime().availableProcessors();
+        String  bookFile   = null, csvFile = null;
+        for ( int iArg = 4; iArg < args.length; iArg++ ) {
+            String arg   = args[iArg];
+            String value = arg.substring(arg.indexOf('=')+1);
+            if      ( arg.matches("\\d+x\\d+")   ) {
+                nC = Integer.parseInt(arg.substring(0, arg.indexOf('x')));
+                nR = Integer.parseInt(arg.substring(arg.indexOf('x')+1));
+            }
+            else if ( arg.startsWith("random=")  ) nRandom  = Integer.parseInt(value);
+            else if ( arg.startsWith("book=")    ) bookFile = value;
+            else if ( arg.startsWith("time=")    ) timeMs   = Integer.parseInt(value);
+            else if ( arg.startsWith("depth=")   ) depth    = Integer.parseInt(value);
+            else if ( arg.startsWith("table=")   ) tableMB  = Integer.parseInt(value);
+            else if ( arg.startsWith("threads=") ) nThreads = Integer.parseInt(value);
+            else if ( arg.startsWith("csv=")     ) csvFile  = value;
+            else {
+                System.err.println("Error(Arena): unknown argument "+arg);
+                return;
+            }
+        }
+
+        Arena arena = new Arena(isConnect4, nC, nR, args[2], args[3], timeMs, depth, tableMB);
+        List<String> openings = new ArrayList<>();
+        if ( bookFile != null ) {
+            try ( BufferedReader in = new BufferedReader(new FileReader(bookFile)) ) {
+                for ( String line = in.readLine(); line != null; line = in.readLine() ) {
+                    if ( !line.trim().isEmpty() ) openings.add(line.trim());
+                }
+            }
+        } else {
+            Random random = new Random(1);
+            for ( int iGame = 0; iGame < (nGames+1)/2; iGame++ ) openings.add(arena.randomOpening(random, nRandom));
+        }
+        if ( openings.isEmpty() ) openings.add(""); // An empty book
+        if ( csvFile != null ) {
+            arena.csv = new PrintWriter(new FileWriter(csvFile));
+            arena.csv.println(String.join(",", CSV_COLUMNS));
+            arena.csv.flush();
+        }
+
+        System.out.println(arena.nameA+" vs "+arena.nameB+": "+nGames+" games of "+(isConnect4 ? "connect4 "+nC+"x"+nR : "tictactoe")
+                           +" on "+nThreads+" threads");
+        long startTime = System.nanoTime();
+        arena.play(nGames, openings, nThreads);
+        long endTime   = System.nanoTime();
+        if ( arena.csv != null ) arena.csv.close();
+
+        double seconds = (double)(endTime - startTime)/1000000000.0;
+        System.out.println(arena.nameA+": "+arena.winsA+" wins, "+arena.draws+" draws, "+arena.lossesA+" losses");
+        System.out.println("Games per second: "+(nGames / seconds)+" ("+seconds+" seconds)");
+        System.out.println("Move latency "+arena.nameA+": "+arena.latencyA.summary());
+        System.out.println("Move latency "+arena.nameB+": "+arena.latencyB.summary());
+    }
+
+    void play( int nGames, List<String> openings, int nThreads ) throws InterruptedException {
+        ThreadLocal<InterfaceStrategy[]> strategies = ThreadLocal.withInitial(() ->
+            new InterfaceStrategy[] { newStrategy(nameA), newStrategy(nameB) });
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        for ( int iGame = 0; iGame < nGames; iGame++ ) {
+            final int game = iGame;
+            executor.execute(() -> {
+                try {
+                    playGame(game, openings.get((game/2) % openings.size()), strategies.get());
+                } catch ( RuntimeException e ) {
+                    System.err.println("Error(Arena): game "+game+" failed");
+                    e.printStackTrace();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+
+    // Plays one game, A first on even games, and records it
+    private void playGame( int game, String opening, InterfaceStrategy[] strategies ) {
+        boolean           isAFirst = game % 2 == 0;
+        InterfacePosition position = newPosition();
+        StringBuilder     moves    = new StringBuilder();
+        long[]            nanos    = new long[2]; // Thinking time of the first and the second player
+        int               result   = -1;          // As isWinner(): 0 draw, else the player who won
+        int               nPlies   = 0;
+        for ( char move : opening.toCharArray() ) {
+            result = play(position, move - '0');
+            moves.append(move);
+            nPlies++;
+            if ( result != -1 ) break;
+        }
+        for ( InterfaceStrategy strategy : strategies ) {
+            if ( strategy instanceof Connect4Strategy ) ((Connect4Strategy)strategy).getTable().clear();
+        }
+
+        while ( result == -1 ) {
+            int               player   = position.getPlayer();
+            InterfaceStrategy strategy = strategies[(player == 1) == isAFirst ? 0 : 1];
+            LatencyLog        latency  = strategy == strategies[0] ? latencyA : latencyB;
+            InterfaceSearchInfo context = newContext();
+            long startTime = System.nanoTime();
+            strategy.getBestMove(copyOf(position), context);
+            long elapsed   = System.nanoTime() - startTime;
+            latency.add(elapsed);
+            nanos[player-1] += elapsed;
+
+            InterfaceIterator bestMove = context.getBestMoveSoFar();
+            if ( bestMove == null || !isPlayable(position, bestMove) ) {
+                result = 3-player; // Forfeit
+                moves.append('!');
+                break;
+            }
+            int move = isConnect4 ? bestMove.iC() : 3*bestMove.iR() + bestMove.iC();
+            result = play(position, move);
+            moves.append(move);
+            nPlies++;
+        }
+
+        String outcome;
+        if ( result == 0 ) {
+            draws.incrementAndGet();
+            outcome = "draw";
+        } else {
+            boolean isAWin = (result == 1) == isAFirst;
+            (isAWin ? winsA : lossesA).incrementAndGet();
+            outcome = result == 1 ? "first" : "second";
+        }
+        if ( csv != null ) {
+            synchronized ( csv ) {
+                csv.println(game+","+(isAFirst ? nameA : nameB)+","+(isAFirst ? nameB : nameA)+","+opening+","
+                            +moves+","+outcome+","+nPlies+","
+                            +(nanos[0]/1000000.0)+","+(nanos[1]/1000000.0));
+                csv.flush();
+            }
+        }
+    }
+
+    // Plays move (column, or spot 3*iR+iC) for the player to move; returns isWinner() after it
+    private int play( InterfacePosition position, int move ) {
+        int player = position.getPlayer();
+        if ( isConnect4 ) {
+            Connect4Position pos4 = (Connect4Position)position;
+            pos4.playColumn(move);
+            return pos4.isWinnerInColumn(move);
+        }
+        InterfaceIterator iPos = new TicTacToeIterator();
+        iPos.set(move % 3, move / 3);
+        position.setColor(iPos, player);
+        position.setPlayer(3-player);
+        return position.isWinner();
+    }
+
+    // nMoves random moves, none of them ending the game (fewer if that cannot be helped)
+    private String randomOpening( Random random, int nMoves ) {
+        InterfacePosition position = newPosition();
+        StringBuilder     opening  = new StringBuilder();
+        int[]             moves    = new int[9];
+        for ( int nTries = 0; opening.length() < nMoves && nTries < 100*nMoves; nTries++ ) {
+            int move = moves[random.nextInt(legalMoves(position, moves))];
+            if ( play(copyOf(position), move) != -1 ) continue;
+            play(position, move);
+            opening.append(move);
+        }
+        return opening.toString();
+    }
+
+    private int legalMoves( InterfacePosition position, int[] moves ) {
+        int nLegal = 0;
+        if ( isConnect4 ) {
+            for ( int iC = 0; iC < nC; iC++ ) if ( ((Connect4Position)position).canPlay(iC) ) moves[nLegal++] = iC;
+        } else {
+            InterfaceIterator iPos = new TicTacToeIterator();
+            for ( int spot = 0; spot < 9; spot++ ) {
+                iPos.set(spot % 3, spot / 3);
+                if ( position.getColor(iPos) == 0 ) moves[nLegal++] = spot;
+            }
+        }
+        return nLegal;
+    }
+
+    private boolean isPlayable( InterfacePosition position, InterfaceIterator iPos ) {
+        if ( iPos.iC() < 0 || iPos.iC() >= nC || iPos.iR() < 0 || iPos.iR() >= nR ) return false;
+        if ( isConnect4 ) return ((Connect4Position)position).spotReady(iPos);
+        return position.getColor(iPos) == 0;
+    }
+
+    private InterfacePosition newPosition() {
+        InterfacePosition position = isConnect4 ? new Connect4Position(nC, nR) : new TicTacToePosition();
+        position.setPlayer(1);
+        return position;
+    }
+
+    private InterfacePosition copyOf( InterfacePosition position ) {
+        return isConnect4 ? new Connect4Position(position) : new TicTacToePosition(position);
+    }
+
+    private InterfaceSearchInfo newContext() {
+        if ( !isConnect4 ) return new TicTacToeSearchInfo();
+        Connect4SearchInfo context = new Connect4SearchInfo();
+        context.setMaxSearchTimeForThisPos(timeMs);
+        context.setMaxDepthSearchForThisPos(depth);
+        return context;
+    }
+
+    private InterfaceStrategy newStrategy( String name ) {
+        if ( name.equals("minimax") ) return isConnect4 ? new Connect4Strategy(tableMB) : new TicTacToeStrategy();
+        if ( name.equals("random")  ) return new RandomStrategy(this);
+        if ( name.equals("mcts") && isConnect4 ) return new Connect4MctsStrategy(1);
+        try {
+            return (InterfaceStrategy)Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch ( ReflectiveOperationException | ClassCastException e ) {
+            throw new IllegalArgumentException("Arena: no strategy "+name, e);
+        }
+    }
+
+    // Plays a random legal move
+    static class RandomStrategy implements InterfaceStrategy {
+        private final Arena arena;
+
+        RandomStrategy( Arena arena ) { this.arena = arena; }
+
+        @Override
+        public void getBestMove( InterfacePosition position, InterfaceSearchInfo context ) {
+            int[] moves  = new int[9];
+            int   nLegal = arena.legalMoves(position, moves);
+            if ( nLegal == 0 ) return;
+            int   move   = moves[ThreadLocalRandom.current().nextInt(nLegal)];
+            InterfaceIterator iPos = arena.isConnect4 ? new Connect4Iterator(arena.nC, arena.nR) : new TicTacToeIterator();
+            if ( arena.isConnect4 ) iPos.set(move, arena.nR-1-((Connect4Position)position).getColumnHeight(move));
+            else                    iPos.set(move % 3, move / 3);
+            context.setBestMoveSoFar(iPos, 0);
+        }
+
+        @Override
+        public void setContext( InterfaceSearchInfo strategyContext ) {
+            // Not used in this strategy
+        }
+
+        @Override
+        public InterfaceSearchInfo getContext() {
+            // Not used in this strategy
+            return null;
+        }
+    }
+
+    // Thinking times of one strategy, for percentiles
+    static class LatencyLog {
+        private long[] nanos  = new long[1024];
+        private int    nMoves = 0;
+
+        synchronized void add( long elapsed ) {
+            if ( nMoves == nanos.length ) nanos = Arrays.copyOf(nanos, 2*nMoves);
+            nanos[nMoves++] = elapsed;
+        }
+
+        synchronized String summary() {
+            if ( nMoves == 0 ) return "no moves";
+            long[] sorted = Arrays.copyOf(nanos, nMoves);
+            Arrays.sort(sorted);
+            return nMoves+" moves, p50 "+percentile(sorted, 50)+" ms, p90 "+percentile(sorted, 90)
+                 +" ms, p99 "+percentile(sorted, 99)+" ms, max "+(sorted[nMoves-1]/1000000.0)+" ms";
+        }
+
+        private static double percentile( long[] sorted, int p ) {
+            int index = (int)Math.ceil(p / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, index)] / 1000000.0;
+        }
+    }
+}
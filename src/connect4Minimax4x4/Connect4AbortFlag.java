@@ -0,0 +1,24 @@
+package connect4Minimax4x4;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4AbortFlag {
+    // Lets a search that is running in another thread be told to give up.
+    // Flags form a chain, so aborting a flag also aborts every flag created under it.
+    private volatile boolean isAborted = false;
+    private Connect4AbortFlag parent;
+
+    Connect4AbortFlag( Connect4AbortFlag parent ) { this.parent = parent; }
+
+    void abort() { isAborted = true; }
+
+    // Makes this flag as good as new, under parent. Only while nothing is checking it.
+    void reuse( Connect4AbortFlag parent ) {
+        this.parent = parent;
+        isAborted   = false;
+    }
+
+    boolean isAborted() {
+        return isAborted || (parent != null && parent.isAborted());
+    }
+}
@@ -0,0 +1,177 @@
+package connect4Minimax4x4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4Benchmark {
+    // Micro benchmarks of the engine's hot paths, to compare numbers before and after a change:
+    //   java connect4Minimax4x4.Connect4Benchmark [name filter]
+    // Every benchmark is first run until the JIT has settled (WARMUP_ROUNDS), then timed over
+    //   MEASURED_ROUNDS rounds of about ROUND_MS each. Reported are the mean time per operation with
+    //   its 99.9% confidence interval, and the bytes allocated per operation (like JMH's gc profiler).
+    // Results go into sink, so that the JIT cannot drop the work being measured.
+    // The searches are timed without precomputed tables, unless -Dconnect4.tables says otherwise.
+
+    static final int WARMUP_ROUNDS   = 5;
+    static final int MEASURED_ROUNDS = 10;
+    static final int ROUND_MS        = 200;
+
+    static volatile long sink;
+
+    interface Benchmark {
+        long run( int nOps ); // Does nOps operations and returns something depending on all of them
+    }
+
+    public static void main( String[] args ) {
+        String filter = args.length > 0 ? args[0] : "";
+        if ( System.getProperty("connect4.tables") == null ) System.setProperty("connect4.tables", "/nonexistent");
+        Random random = new Random(1);
+
+        List<String>    names      = new ArrayList<>();
+        List<Benchmark> benchmarks = new ArrayList<>();
+
+        Connect4Position[] positions4x4 = randomPositions(random, 4, 4, 1024);
+        Connect4Position[] positions7x6 = randomPositions(random, 7, 6, 1024);
+        names.add("Connect4Position.isWinner() 4x4");
+        benchmarks.add(nOps -> { long sum = 0; for ( int i = 0; i < nOps; i++ ) sum += positions4x4[i & 1023].isWinner(); return sum; });
+        names.add("Connect4Position.isWinner() 7x6");
+        benchmarks.add(nOps -> { long sum = 0; for ( int i = 0; i < nOps; i++ ) sum += positions7x6[i & 1023].isWinner(); return sum; });
+
+        int[]               columns  = randomGame(random, 4, 4);
+        InterfaceIterator[] spots    = new InterfaceIterator[columns.length];
+        Connect4Position    scratch  = new Connect4Position(4, 4);
+        for ( int iMove = 0; iMove < columns.length; iMove++ ) {
+            spots[iMove] = new Connect4Iterator(4, 4);
+            spots[iMove].set(columns[iMove], 3 - scratch.getColumnHeight(columns[iMove]));
+            scratch.playColumn(columns[iMove]);
+        }
+        Connect4Position filling = new Connect4Position(4, 4);
+        names.add("Connect4Position.setColor()+getColor()");
+        benchmarks.add(nOps -> {
+            long sum = 0;
+            for ( int i = 0; i < nOps; i++ ) {
+                int iMove = i % spots.length;
+                if ( iMove == 0 ) filling.reset();
+                filling.setColor(spots[iMove], 1 + iMove%2);
+                sum += filling.getColor(spots[iMove]);
+            }
+            return sum;
+        });
+
+        TicTacToePosition[] ticTacToes = randomTicTacToes(random, 1024);
+        names.add("TicTacToePosition.isWinner()");
+        benchmarks.add(nOps -> { long sum = 0; for ( int i = 0; i < nOps; i++ ) sum += ticTacToes[i & 1023].isWinner(); return sum; });
+
+        Connect4TranspositionTable table = new Connect4TranspositionTable(16);
+        long[] keys = new long[1 << 16];
+        for ( int i = 0; i < keys.length; i++ ) keys[i] = random.nextLong();
+        names.add("Connect4TranspositionTable.store()+probe()");
+        benchmarks.add(nOps -> {
+            long sum = 0;
+            for ( int i = 0; i < nOps; i++ ) {
+                table.store(keys[i & 0xFFFF], 0.5f, Connect4TranspositionTable.EXACT, i & 15, i & 31);
+                sum += table.probe(keys[(i*7) & 0xFFFF]);
+            }
+            return sum;
+        });
+
+        int[][] openings = { {4,4}, {4,4,1}, {5,4}, {5,4,2,2} }; // nC, nR, then the columns already played
+        for ( int[] opening : openings ) {
+            Connect4Strategy strategy = new Connect4Strategy();
+            Connect4Position position = new Connect4Position(opening[0], opening[1]);
+            position.setPlayer(1);
+            for ( int iMove = 2; iMove < opening.length; iMove++ ) position.playColumn(opening[iMove]);
+            names.add("Connect4Strategy.getBestMove() "+opening[0]+"x"+opening[1]+" after "+(opening.length-2)+" moves");
+            benchmarks.add(nOps -> {
+                long sum = 0;
+                for ( int i = 0; i < nOps; i++ ) {
+                    strategy.getTable().clear(); // A full solve every time
+                    Connect4SearchInfo context = new Connect4SearchInfo();
+                    strategy.getBestMove(position, context);
+                    sum += context.getBestMoveSoFar().iC();
+                }
+                return sum;
+            });
+        }
+
+        for ( int i = 0; i < benchmarks.size(); i++ ) {
+            if ( names.get(i).contains(filter) ) measure(names.get(i), benchmarks.get(i));
+        }
+    }
+
+    static void measure( String name, Benchmark benchmark ) {
+        int nOps = 1; // Grow until a round takes about ROUND_MS
+        while ( true ) {
+            long startTime = System.nanoTime();
+            sink += benchmark.run(nOps);
+            long elapsed = System.nanoTime() - startTime;
+            if ( elapsed > 1000000L*ROUND_MS/10 ) {
+                nOps = (int)Math.max(1, Math.min(Integer.MAX_VALUE, nOps * (1000000.0*ROUND_MS / elapsed)));
+                break;
+            }
+            nOps *= 2;
+        }
+        for ( int iRound = 0; iRound < WARMUP_ROUNDS; iRound++ ) sink += benchmark.run(nOps);
+
+        double[] nsPerOp        = new double[MEASURED_ROUNDS];
+        long     allocatedStart = allocatedBytes();
+        for ( int iRound = 0; iRound < MEASURED_ROUNDS; iRound++ ) {
+            long startTime = System.nanoTime();
+            sink += benchmark.run(nOps);
+            nsPerOp[iRound] = (double)(System.nanoTime() - startTime) / nOps;
+        }
+        long allocated = allocatedBytes() - allocatedStart;
+
+        double mean = 0, variance = 0;
+        for ( double ns : nsPerOp ) mean += ns / MEASURED_ROUNDS;
+        for ( double ns : nsPerOp ) variance += (ns-mean)*(ns-mean) / (MEASURED_ROUNDS-1);
+        double error = 3.29 * Math.sqrt(variance / MEASURED_ROUNDS); // 99.9%, normal approximation
+        System.out.println(String.format("%-55s %14.1f +- %10.1f ns/op %12s B/op", name, mean, error,
+                           allocated < 0 ? "n/a" : String.format("%.1f", (double)allocated / (MEASURED_ROUNDS*(long)nOps))));
+    }
+
+    private static long allocatedBytes() { // Of this thread, -1 if the JVM cannot tell
+        return Connect4Strategy.threadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static int[] randomGame( Random random, int nC, int nR ) { // Columns of a game played to a full board
+        Connect4Position position = new Connect4Position(nC, nR);
+        int[] columns = new int[nC*nR];
+        for ( int iMove = 0; iMove < columns.length; iMove++ ) {
+            int iC;
+            do { iC = random.nextInt(nC); } while ( !position.canPlay(iC) );
+            position.playColumn(iC);
+            columns[iMove] = iC;
+        }
+        return columns;
+    }
+
+    private static Connect4Position[] randomPositions( Random random, int nC, int nR, int nPositions ) {
+        Connect4Position[] positions = new Connect4Position[nPositions];
+        for ( int i = 0; i < nPositions; i++ ) {
+            int[] columns = randomGame(random, nC, nR);
+            positions[i] = new Connect4Position(nC, nR);
+            positions[i].setPlayer(1);
+            int nMoves = random.nextInt(columns.length);
+            for ( int iMove = 0; iMove < nMoves; iMove++ ) positions[i].playColumn(columns[iMove]);
+        }
+        return positions;
+    }
+
+    private static TicTacToePosition[] randomTicTacToes( Random random, int nPositions ) {
+        TicTacToePosition[] positions = new TicTacToePosition[nPositions];
+        for ( int i = 0; i < nPositions; i++ ) {
+            positions[i] = new TicTacToePosition();
+            int nMoves = random.nextInt(10);
+            for ( int iMove = 0; iMove < nMoves; iMove++ ) {
+                InterfaceIterator iPos = new TicTacToeIterator();
+                iPos.set(random.nextInt(3), random.nextInt(3));
+                if ( positions[i].getColor(iPos) == 0 ) positions[i].setColor(iPos, 1 + iMove%2);
+            }
+        }
+        return positions;
+    }
+}
@@ -1,11 +1,16 @@
 package connect4Minimax4x4;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import connect4Minimax4x4.Connect4SearchInfo;
 import connect4Minimax4x4.Connect4Strategy;
 
 //author: Gary Kalmanovich; rights reserved
 
-public class Connect4Control implements InterfaceControl, ThreadCompleteListener{
+public class Connect4Control implements InterfaceControl{
     // This is the controller class. It is also a model class
     // Its responsibilities are:
     //   - to make sure that the rules of the game are followed
@@ -16,49 +21,73 @@ public class Connect4Control implements InterfaceControl, ThreadCompleteListener
 
     private InterfaceView     view;
     private Connect4Position position; 
+    private InterfaceIterator lastMove = null; // Spot of the most recent disk, null before the first move
     private int currentPlayer = 1;
     private InterfaceStrategy player1Strategy = null;// new Connect4Strategy();// 
     private InterfaceStrategy player2Strategy = null;// new Connect4Strategy();// 
-    private boolean isMoveBlockedByCalculation = false;
+    private volatile boolean isMoveBlockedByCalculation = false;
+    private volatile InterfaceSearchInfo searchInfo = null; // Context of the running or last engine search
+    private static final int MAX_SEARCH_TIME_MS = 5000; // Per engine move; the best move found by then is played
+    private static final int PARALLEL_SPLIT_DEPTH = 3;   // Moves below the root that are still searched in parallel
+
+    // Engine searches (and ponder searches) run one at a time on a single long lived thread,
+    //   each on its own copy of the position, with its own abort flag that the search polls as it goes.
+    // Cancelling a search (new game, new strategy, unexpected human move) sets the flag and returns at once:
+    //   the search thread is free again within about a thousand nodes, and whatever is queued next
+    //   starts then. The result of a cancelled search is dropped, never played.
+    // Results come back through a CompletableFuture pipeline, on the search thread.
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Connect4Search");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private CompletableFuture<InterfaceIterator> engineSearch = null; // Engine move being searched, null if none
+    private Connect4AbortFlag                    engineFlag   = null; // ... and its abort flag
+
+    // Pondering: while a human thinks about a move against an engine, the engine already searches
+    //   its answer to the reply it expects (the best reply a short search finds).
+    // If the human plays that reply, the ponder search becomes the real one, with the usual time limit
+    //   counted from when it started. So if it has already been searching that long (or is done),
+    //   its move is played at once.
+    // Any other move aborts it; what it put into the transposition table still helps the real search.
+    private static final boolean IS_PONDERING    = true;
+    private static final int     PREDICT_TIME_MS = 200; // For the short search that guesses the human's reply
+    private Ponder ponder = null; // Running or finished ponder search, null if none
 
     @Override
-    public void onMove() { // Control is notified of a player (real or automated) move
-        if ( currentPlayer == 1 ) {
-            if (player1Strategy != null && !isBlockManualMove()) { // isStrategy and game not over
-                isMoveBlockedByCalculation = true;
-                position.setPlayer( 1 );
-                Connect4SearchInfo context = new Connect4SearchInfo();
-                NotifyingThread thread = new ThreadStrategy(player1Strategy, position, context);
-                thread.addListener(this); // add ourselves as a listener
-                thread.start();           // Start the Thread
-            }
-        }
-        if ( currentPlayer == 2 ) {
-            if (player2Strategy != null && !isBlockManualMove()) { // isStrategy and game not over
-                isMoveBlockedByCalculation = true;
-                position.setPlayer( 2 );
-                Connect4SearchInfo context = new Connect4SearchInfo();
-                NotifyingThread thread = new ThreadStrategy(player2Strategy, position, context);
-                thread.addListener(this); // add ourselves as a listener
-                thread.start();           // Start the Thread
-            }
+    public synchronized void onMove() { // Control is notified of a player (real or automated) move
+        InterfaceStrategy strategy = currentPlayer == 1 ? player1Strategy : player2Strategy;
+        if ( strategy != null && !isBlockManualMove() ) { // isStrategy and game not over
+            startSearch(strategy);
         }
+        startPondering();
     }
 
     @Override
-    public void onMove(int unused1, int unused2, int iColumn, int iRow, int iColor) {
+    public synchronized void onMove(int unused1, int unused2, int iColumn, int iRow, int iColor) {
         InterfaceIterator iter = new Connect4Iterator( view.nC(), view.nR()); iter.set(iColumn, iRow);
         //System.out.print("Slot: ( "+iRow+", "+iColumn+" ) is set to color: "+iColor+". Was set to: "+position.getColor(iter));
         position.setColor(iter, iColor);
+        lastMove = iter;
         //System.out.println(". Now: "+position.getColor(iter));
         currentPlayer = 3 - iColor;
-        onMove();
+        if ( !checkPonder(iter) ) onMove(); // On a ponder hit, the ponder search makes the engine's move
     }
 
     @Override
-    public void resetGame() {
+    public synchronized void resetGame() {
+        cancelSearch();
+        stopPondering();
         position.reset();
+        lastMove = null;
         currentPlayer = 1;
+        // Fresh engines for the new game; the old ones let their threads and memory go
+        InterfaceStrategy oldStrategy1 = player1Strategy;
+        InterfaceStrategy oldStrategy2 = player2Strategy;
+        player1Strategy = newStrategy(getStrategy(oldStrategy1));
+        player2Strategy = newStrategy(getStrategy(oldStrategy2));
+        discard(oldStrategy1);
+        discard(oldStrategy2);
     }
 
     @Override
@@ -73,35 +102,187 @@ public class Connect4Control implements InterfaceControl, ThreadCompleteListener
     }
 
     @Override 
-    public void setStrategy( int player, int strategy ) {
-        InterfaceStrategy playerStrategy = strategy==0 ? null : new Connect4Strategy();
-        if (player==1) player1Strategy = playerStrategy;
-        else           player2Strategy = playerStrategy;
+    public synchronized void setStrategy( int player, int strategy ) {
+        cancelSearch();
+        stopPondering();
+        InterfaceStrategy playerStrategy = newStrategy(strategy);
+        if (player==1) { discard(player1Strategy); player1Strategy = playerStrategy; }
+        else           { discard(player2Strategy); player2Strategy = playerStrategy; }
         onMove(); // Check if anything needs to be done via a strategy
     }
+
+    private InterfaceStrategy newStrategy( int strategy ) { // strategy: index in StrategyChoice
+        if ( strategy == 1 || strategy == 3 || strategy == 4 ) {
+            Connect4Strategy connect4Strategy = new Connect4Strategy();
+            connect4Strategy.setPersistentCache(Connect4PersistentCache.getDefault(view.nC(), view.nR())); // null unless -Dconnect4.cache is set
+            int nThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+            if ( strategy == 3 ) connect4Strategy.setParallelism(nThreads, PARALLEL_SPLIT_DEPTH); // Young brothers wait
+            if ( strategy == 4 ) connect4Strategy.setHelperThreads(nThreads-1);                  // Lazy SMP
+            return connect4Strategy;
+        } else if ( strategy == 2 ) {
+            return new Connect4MctsStrategy(); // Plays for MAX_SEARCH_TIME_MS, at most
+        }
+        return null;
+    }
+
+    // Lets the threads (and the persistent cache) of a strategy that is not used any more go.
+    // Any search of it has been cancelled already; the threads end once that search has stopped.
+    private static void discard( InterfaceStrategy strategy ) {
+        if ( strategy instanceof Connect4MctsStrategy ) ((Connect4MctsStrategy)strategy).shutdown();
+        if ( strategy instanceof Connect4Strategy     ) ((Connect4Strategy)    strategy).shutdown();
+    }
     
     @Override 
     public int getStrategy( int player ) {
-        if (player==1) return player1Strategy==null ? 0 : 1;
-        else           return player2Strategy==null ? 0 : 1;
+        return getStrategy(player==1 ? player1Strategy : player2Strategy);
+    }
+
+    private static int getStrategy( InterfaceStrategy strategy ) { // Index in StrategyChoice
+        if ( strategy == null                          ) return 0;
+        if ( strategy instanceof Connect4MctsStrategy ) return 2;
+        if ( ((Connect4Strategy)strategy).isParallel()       ) return 3;
+        if ( ((Connect4Strategy)strategy).hasHelperThreads() ) return 4;
+        return 1;
     }
     
     @Override 
     public boolean isBlockManualMove() {
-        return position.isWinner() >= 0  ||  isMoveBlockedByCalculation;
+        return (lastMove != null && position.isWinner(lastMove) >= 0)  ||  isMoveBlockedByCalculation;
     }
 
     @Override
-    public void notifyOfThreadComplete(Thread thread) {
-        InterfaceSearchInfo context   = ((ThreadStrategy)thread).getContext();
-        //System.out.println("Best move(Applct): c "+bestMove.iC()+", r "+bestMove.iR());
-        int iR = context.getBestMoveSoFar().iR();
-        int iC = context.getBestMoveSoFar().iC();
-        
-        thread.interrupt();
-        
-        view.performMove(0, 0, iC, iR, 0); // 0 references is not used in this view
-        
+    public InterfaceSearchInfo getSearchInfo() {
+        return searchInfo;
+    }
+
+    // Queues a search for the move of currentPlayer; its move is played when it is done
+    private void startSearch( InterfaceStrategy strategy ) {
+        isMoveBlockedByCalculation = true;
+        position.setPlayer( currentPlayer );
+        Connect4Position   searchPosition = new Connect4Position(position);
+        Connect4SearchInfo context        = new Connect4SearchInfo();
+        Connect4AbortFlag  flag           = new Connect4AbortFlag(null);
+        context.setMaxSearchTimeForThisPos(MAX_SEARCH_TIME_MS);
+        context.setAbortFlag(flag);
+        searchInfo   = context;
+        engineFlag   = flag;
+        engineSearch = CompletableFuture.supplyAsync(() -> {
+            long startTime = System.nanoTime(); // Start the total timing
+            strategy.getBestMove(searchPosition, context);
+            long endTime   = System.nanoTime(); // Finish the total timing
+            System.out.println("This move computation took:   " + ((double)(endTime - startTime)/1000000.0) + " milliseconds");
+            return context.getBestMoveSoFar();
+        }, searchExecutor);
+        engineSearch.thenAccept(bestMove -> playEngineMove(flag, bestMove))
+                    .exceptionally(Connect4Control::reportFailure);
+    }
+
+    private synchronized void playEngineMove( Connect4AbortFlag flag, InterfaceIterator bestMove ) {
+        if ( flag.isAborted() ) return; // Cancelled, the game has moved on
+        engineSearch = null;
+        engineFlag   = null;
+        isMoveBlockedByCalculation = false;
+        if ( bestMove != null ) view.performMove(0, 0, bestMove.iC(), bestMove.iR(), 0); // 0 references is not used in this view
+    }
+
+    private void cancelSearch() {
+        if ( engineSearch == null ) return;
+        engineFlag.abort();          // Stops it if it is running
+        engineSearch.cancel(false);  // ... and keeps it from starting if it is still queued
+        engineSearch = null;
+        engineFlag   = null;
+        isMoveBlockedByCalculation = false;
+    }
+
+    private static Void reportFailure( Throwable e ) {
+        if ( !(e instanceof CancellationException || e.getCause() instanceof CancellationException) ) {
+            System.err.println("Error(Connect4Control): the search failed");
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    // Starts a ponder search if a human is to move against an engine
+    private void startPondering() {
+        InterfaceStrategy engine = currentPlayer == 1 ? player2Strategy : player1Strategy;
+        InterfaceStrategy human  = currentPlayer == 1 ? player1Strategy : player2Strategy;
+        if ( !IS_PONDERING || ponder != null || human != null || engine == null || position.isWinner() >= 0 ) return;
+        Connect4Position ponderPosition = new Connect4Position(position);
+        ponderPosition.setPlayer(currentPlayer);
+        Ponder started = new Ponder(engine, ponderPosition);
+        ponder = started;
+        CompletableFuture.runAsync(started::search, searchExecutor)
+                         .thenRun(() -> onPonderComplete(started))
+                         .exceptionally(Connect4Control::reportFailure);
+    }
+
+    // Called with the human's move: keeps the ponder search if it expected that move (and returns true),
+    //   else stops it
+    private boolean checkPonder( InterfaceIterator move ) {
+        if ( ponder == null ) return false;
+        InterfaceIterator expected = ponder.expectedMove;
+        if ( expected != null && expected.iC() == move.iC() && expected.iR() == move.iR() ) {
+            ponder.isHit = true;
+            ponder.context.setStopTime(ponder.startTime + 1000000L*MAX_SEARCH_TIME_MS);
+            isMoveBlockedByCalculation = true;
+            if ( ponder.isDone ) playPonderMove();
+            return true;
+        }
+        stopPondering();
+        return false;
+    }
+
+    // Aborts a ponder search; the next search on the search thread starts as soon as it has stopped
+    private void stopPondering() {
+        if ( ponder == null ) return;
+        ponder.abortFlag.abort();
+        ponder = null;
+    }
+
+    private synchronized void onPonderComplete( Ponder completed ) {
+        if ( completed != ponder ) return; // Stopped in the meantime
+        completed.isDone = true;
+        if ( completed.isHit ) playPonderMove();
+    }
+
+    private void playPonderMove() {
+        Ponder hit = ponder;
+        ponder = null;
+        InterfaceIterator bestMove = hit.context.getBestMoveSoFar();
+        view.performMove(0, 0, bestMove.iC(), bestMove.iR(), 0); // 0 references is not used in this view
         isMoveBlockedByCalculation = false;
     }
+
+    private class Ponder {
+        private final InterfaceStrategy  strategy;
+        private final Connect4Position   position;  // Own copy, the human to move
+        final Connect4AbortFlag          abortFlag = new Connect4AbortFlag(null);
+        final Connect4SearchInfo         context   = new Connect4SearchInfo(); // Of the search after the expected reply
+        volatile InterfaceIterator       expectedMove = null; // Set once the ponder search proper has started
+        volatile long                    startTime    = 0;    // System.nanoTime() of that start
+        boolean                          isHit  = false; // Guarded by Connect4Control.this
+        boolean                          isDone = false; // Guarded by Connect4Control.this
+
+        Ponder( InterfaceStrategy strategy, Connect4Position position ) {
+            this.strategy = strategy;
+            this.position = position;
+        }
+
+        void search() { // On the search thread
+            Connect4SearchInfo predictContext = new Connect4SearchInfo();
+            predictContext.setMaxSearchTimeForThisPos(PREDICT_TIME_MS);
+            predictContext.setAbortFlag(abortFlag);
+            strategy.getBestMove(position, predictContext);
+            InterfaceIterator reply = predictContext.getBestMoveSoFar();
+            if ( abortFlag.isAborted() || reply == null ) return;
+            position.playColumn(reply.iC());
+            if ( position.isWinnerInColumn(reply.iC()) >= 0 ) return; // That reply would end the game
+
+            context.setAbortFlag(abortFlag);
+            searchInfo   = context;
+            startTime    = System.nanoTime();
+            expectedMove = new Connect4Iterator(reply);
+            strategy.getBestMove(position, context);
+        }
+    }
 }
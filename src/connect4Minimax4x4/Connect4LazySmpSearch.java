@@ -0,0 +1,94 @@
+package connect4Minimax4x4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4LazySmpSearch {
+    // Lazy SMP: the main strategy searches the root position as usual, while helper
+    //   strategies search the very same position, each trying moves in a different order
+    //   and every other one looking one move deeper than the main search.
+    // The order is rotated by a number of columns (mod nC): 0 for the main search, and
+    //   1..nC-1 for the helpers, so that no helper searches the same tree as the main search.
+    //   With more than nC-1 helpers, the offsets come round again, at the other depth.
+    // They never talk to each other directly. The only thing they share is the
+    //   (lock free) transposition table, so whatever a helper finishes first shows up as
+    //   a table hit for the main search. Only the main search's result goes into context.
+    // Helpers are stopped as soon as the main search is done, and search() returns only once
+    //   they all have, so that helpers of one iteration never overlap with the next one.
+    // Helpers search with buffers registered with the main strategy, so their nodes count
+    //   in its statistics and towards its node limit.
+
+    private final Connect4Strategy        mainStrategy;
+    private final List<Connect4Strategy>  helpers = new ArrayList<>();
+    private final Connect4SearchBuffers[] helperBuffers;
+    private final ExecutorService         executor;
+
+    Connect4LazySmpSearch( Connect4Strategy mainStrategy, int nHelpers ) {
+        this.mainStrategy = mainStrategy;
+        for ( int iHelper = 1; iHelper <= nHelpers; iHelper++ ) {
+            helpers.add(new Connect4Strategy(mainStrategy.getTable(), 0)); // Offset set per search
+        }
+        helperBuffers = new Connect4SearchBuffers[nHelpers];
+        executor = Executors.newFixedThreadPool(nHelpers, runnable -> {
+            Thread thread = new Thread(runnable, "Connect4LazySmpHelper");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void search( Connect4Position position, Connect4SearchInfo context ) {
+        Connect4AbortFlag helpersFlag = new Connect4AbortFlag(context.getAbortFlag());
+        List<Future<?>>   running     = new ArrayList<>();
+        for ( int iHelper = 0; iHelper < helpers.size(); iHelper++ ) {
+            Connect4Strategy   helper         = helpers.get(iHelper);
+            Connect4Position   helperPosition = new Connect4Position(position);
+            Connect4SearchInfo helperContext  = new Connect4SearchInfo();
+            int nOffsets = Math.max(1, position.nC()-1);
+            int deeper   = (iHelper + (iHelper/nOffsets)*(nOffsets+1)) % 2; // Other depth when the offsets come round
+            helper.setMoveOrderOffset(1 + iHelper%nOffsets);
+            helper.setTablebase(mainStrategy.getTablebase());
+            helperContext.setMaxDepthSearchForThisPos(context.getMaxDepthSearchForThisPos() + deeper);
+            helperContext.setAbortFlag(helpersFlag);
+            helperContext.setBuffers(getBuffers(iHelper, position.nC(), position.nR()));
+            try {
+                running.add(executor.submit(() -> helper.search(helperPosition, helperContext)));
+            } catch ( RejectedExecutionException e ) {
+                break; // Shut down
+            }
+        }
+        mainStrategy.search(position, context);
+        helpersFlag.abort();
+        for ( Future<?> helper : running ) { // Each stops within about a thousand nodes
+            try {
+                helper.get();
+            } catch ( InterruptedException | ExecutionException e ) {
+                System.err.println("Error(Connect4LazySmpSearch): a helper failed");
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Buffers of a helper, for a board of nC x nR. Reused from one search to the next.
+    private Connect4SearchBuffers getBuffers( int iHelper, int nC, int nR ) {
+        Connect4SearchBuffers buffers = helperBuffers[iHelper];
+        if ( buffers == null || buffers.nC != nC || buffers.nR != nR ) {
+            if ( buffers != null ) mainStrategy.dropBuffers(buffers);
+            buffers = helperBuffers[iHelper] = mainStrategy.newBuffers(nC, nR);
+        }
+        return buffers;
+    }
+
+    void shutdown() {
+        executor.shutdown(); // Helpers still running stop with the search they are part of
+        for ( Connect4SearchBuffers buffers : helperBuffers ) {
+            if ( buffers != null ) mainStrategy.dropBuffers(buffers);
+        }
+    }
+}
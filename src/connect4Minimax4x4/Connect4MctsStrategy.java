@@ -0,0 +1,456 @@
+package connect4Minimax4x4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4MctsStrategy implements InterfaceStrategy {
+    // Monte Carlo tree search (UCT), for boards that cannot be searched to the end in time.
+    // Every playout goes through four steps:
+    //   select : from the root, go to the child with the best UCT value (win rate + exploration)
+    //            until a node without children
+    //   expand : a leaf visited EXPAND_VISITS times gets a child for every column that has room
+    //   playout: random moves from there to the end of the game, on bare bitboards. A playout
+    //            does take a winning spot, and does block a single winning spot of the opponent.
+    //   back up: the result goes into every node on the path, for the player who moved into it
+    // The move played is the root's most visited child.
+    //
+    // Tree parallel: nWorkers threads grow the same tree at once, without locks. A worker counts
+    //   its visit to a node on the way down (virtual loss), so until its result is in, the node
+    //   looks worse to the others and they spread over other paths.
+    // Nodes are slots in arrays allocated once (NodePool), the children of a node in consecutive
+    //   slots, so that the search creates no objects at all.
+    // The tree is kept between moves: if the position to search is at most MAX_REUSE_PLIES below
+    //   the previous root, its subtree is copied to the spare pool and the rest is dropped.
+    // Limits come from the context: time (and stop time), playouts (getMaxNodesForThisPos()) and
+    //   the abort flag. Without a time or playout limit, DEFAULT_PLAYOUTS playouts are done.
+
+    static final int   DEFAULT_NODES    = 1 << 20; // Per pool, about 15 bytes each
+    static final int   DEFAULT_PLAYOUTS = 200000;
+    static final float EXPLORATION      = 1.0f;    // UCT constant, for results between 0 and 1
+    static final int   EXPAND_VISITS    = 2;       // A leaf gets its children on its second visit
+    static final int   MAX_REUSE_PLIES  = 2;       // Our move and the opponent's reply
+    static final int   CHECK_INTERVAL   = 256;     // Playouts between looks at the limits
+
+    // How the game ended with the move into a node
+    static final byte RESULT_NONE = 0; // Not over
+    static final byte RESULT_WIN  = 1; // Won by the player who moved
+    static final byte RESULT_DRAW = 2;
+
+    private final int             nWorkers;
+    private final ExecutorService executor; // Workers 1..nWorkers-1, null if there is only one
+    private NodePool pool;     // Tree of the last search, its root in slot 0
+    private NodePool spare;    // Target of the next compaction
+    private final int[] oldSlots; // Compaction scratch: slot in pool of every slot in spare
+
+    // Geometry of the tree's board, and its root position (bitboards as in Connect4Position)
+    private int    nC = 0, nR = 0, height = 0;
+    private long   bottomMask = 0, boardMask = 0;
+    private long[] columnMasks;
+    private boolean hasTree     = false;
+    private long    rootCurrent = 0;
+    private long    rootMask    = 0;
+
+    // Limits and statistics of the current getBestMove() call
+    private volatile boolean isStopped      = false;
+    private final AtomicLong playoutCount   = new AtomicLong();
+    private volatile int     maxDepthReached = 0;
+    private long             maxPlayouts    = 0;
+    private long             startTime      = 0;
+    private long             deadline       = Long.MAX_VALUE;
+    private long             nextPublishTime = 0;
+    private long             startAllocated = 0;
+
+    Connect4MctsStrategy() { this(Runtime.getRuntime().availableProcessors(), DEFAULT_NODES); }
+    Connect4MctsStrategy( int nWorkers ) { this(nWorkers, DEFAULT_NODES); }
+    Connect4MctsStrategy( int nWorkers, int capacity ) {
+        this.nWorkers = Math.max(1, nWorkers);
+        pool     = new NodePool(capacity);
+        spare    = new NodePool(capacity);
+        oldSlots = new int[capacity];
+        executor = this.nWorkers == 1 ? null : Executors.newFixedThreadPool(this.nWorkers-1, runnable -> {
+            Thread thread = new Thread(runnable, "Connect4MctsWorker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Lets the worker threads go once the search running now (if any) is done.
+    // A search started after this runs on the calling thread only.
+    void shutdown() {
+        if ( executor != null ) executor.shutdown();
+    }
+
+    @Override
+    public void getBestMove(InterfacePosition position, InterfaceSearchInfo context) {
+        // Note, return information is embedded in context
+        Connect4Position   rootPosition = (Connect4Position)  position;
+        Connect4SearchInfo rootContext  = (Connect4SearchInfo)context;
+        startTime       = System.nanoTime();
+        nextPublishTime = startTime + 1000000L*Connect4Strategy.STATISTICS_INTERVAL_MS;
+        startAllocated  = Connect4Strategy.threadAllocatedBytes(Thread.currentThread().getId());
+        playoutCount.set(0);
+        maxDepthReached = 0;
+        isStopped       = false;
+        maxPlayouts = rootContext.getMaxNodesForThisPos() > 0 ? rootContext.getMaxNodesForThisPos()
+                    : rootContext.getMaxSearchTimeForThisPos() > 0 ? Long.MAX_VALUE : DEFAULT_PLAYOUTS;
+        deadline    = rootContext.getMaxSearchTimeForThisPos() > 0
+                    ? startTime + 1000000L*rootContext.getMaxSearchTimeForThisPos() : Long.MAX_VALUE;
+
+        if ( rootPosition.isWinner() != -1 ) { // Game over, no move to make
+            publishStatistics(rootContext);
+            return;
+        }
+        setRoot(rootPosition);
+        if ( expand(pool, 0, rootCurrent, rootMask) < 0 ) { // No room left below a reused root: start over
+            pool.clear();
+            expand(pool, 0, rootCurrent, rootMask);
+        }
+        int nChildren = pool.nChildren[0]; // > 0, the game not being over
+        if ( nChildren > 1 && winningChild() < 0 ) { // Else there is nothing to think about
+            List<Future<?>> helpers = new ArrayList<>();
+            for ( int iWorker = 1; iWorker < nWorkers; iWorker++ ) {
+                Worker helper = new Worker(iWorker, null);
+                try {
+                    helpers.add(executor.submit(helper::run));
+                } catch ( RejectedExecutionException e ) {
+                    break; // Shut down
+                }
+            }
+            new Worker(0, rootContext).run();
+            isStopped = true;
+            for ( Future<?> helper : helpers ) {
+                try {
+                    helper.get();
+                } catch ( InterruptedException | ExecutionException e ) {
+                    System.err.println("Error(Connect4MctsStrategy): a worker failed");
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        int best = winningChild() >= 0 ? winningChild() : mostVisitedChild();
+        int iC   = pool.column[best];
+        InterfaceIterator iPos = new Connect4Iterator(nC, nR);
+        iPos.set(iC, nR-1-rootPosition.getColumnHeight(iC));
+        context.setBestMoveSoFar(iPos, scoreOf(best));
+        publishStatistics(rootContext);
+    }
+
+    // Makes slot 0 of pool the node of position: the old tree's node if it is close enough below, else a new root
+    private void setRoot( Connect4Position position ) {
+        if ( position.nC() != nC || position.nR() != nR ) setGeometry(position.nC(), position.nR());
+        long current = position.getCurrentStones();
+        long mask    = position.getAllStones();
+        int  slot    = hasTree ? findSlot(0, rootCurrent, rootMask, current, mask, MAX_REUSE_PLIES) : -1;
+        if      ( slot < 0 ) pool.clear();
+        else if ( slot > 0 ) compact(slot);
+        hasTree     = true;
+        rootCurrent = current;
+        rootMask    = mask;
+    }
+
+    private void setGeometry( int nC, int nR ) {
+        this.nC     = nC;
+        this.nR     = nR;
+        height      = nR+1;
+        bottomMask  = 0;
+        boardMask   = 0;
+        columnMasks = new long[nC];
+        for ( int iC = 0; iC < nC; iC++ ) {
+            columnMasks[iC] = ((1L << nR) - 1) << (iC*height);
+            bottomMask     |= 1L << (iC*height);
+            boardMask      |= columnMasks[iC];
+        }
+        hasTree = false;
+    }
+
+    // Slot of the node with bitboards (current,mask) at most plies below slot (whose bitboards are given), -1 if none
+    private int findSlot( int slot, long slotCurrent, long slotMask, long current, long mask, int plies ) {
+        if ( slotCurrent == current && slotMask == mask ) return slot;
+        int first = pool.firstChild.get(slot);
+        if ( plies == 0 || first <= 0 || (slotMask & ~mask) != 0 ) return -1;
+        for ( int child = first; child < first + pool.nChildren[slot]; child++ ) {
+            long move  = (slotMask + bottomMask) & columnMasks[pool.column[child]];
+            int  found = findSlot(child, slotCurrent ^ slotMask, slotMask | move, current, mask, plies-1);
+            if ( found >= 0 ) return found;
+        }
+        return -1;
+    }
+
+    // Copies the subtree below slot into spare, breadth first (so children stay consecutive), and swaps the pools
+    private void compact( int slot ) {
+        spare.clear();
+        oldSlots[0] = slot;
+        for ( int newSlot = 0; newSlot < spare.nNodes.get(); newSlot++ ) {
+            int oldSlot = oldSlots[newSlot];
+            spare.visits.set(newSlot, pool.visits.get(oldSlot));
+            spare.points.set(newSlot, pool.points.get(oldSlot));
+            spare.column[newSlot] = pool.column[oldSlot];
+            spare.result[newSlot] = pool.result[oldSlot];
+            int first     = pool.firstChild.get(oldSlot);
+            int nChildren = first > 0 ? pool.nChildren[oldSlot] : 0;
+            spare.nChildren[newSlot] = (byte)nChildren;
+            spare.firstChild.set(newSlot, nChildren == 0 ? 0 : spare.nNodes.get());
+            for ( int iChild = 0; iChild < nChildren; iChild++ ) oldSlots[spare.nNodes.getAndIncrement()] = first + iChild;
+        }
+        NodePool swap = pool;
+        pool  = spare;
+        spare = swap;
+    }
+
+    // Gives slot a child for every column with room, unless another worker is at it or the pool is full.
+    // Returns the slot of its first child, or -1 if it has none.
+    private int expand( NodePool pool, int slot, long current, long mask ) {
+        if ( !pool.firstChild.compareAndSet(slot, 0, NodePool.EXPANDING) ) return pool.firstChild.get(slot);
+        long moves     = (mask + bottomMask) & boardMask;
+        long wins      = winningSpots(current, mask) & moves;
+        int  nChildren = 0;
+        for ( int iC = 0; iC < nC; iC++ ) if ( (moves & columnMasks[iC]) != 0 ) nChildren++;
+        int  first     = nChildren == 0 ? -1 : pool.allocate(nChildren);
+        if ( first < 0 ) {
+            pool.firstChild.set(slot, 0);
+            return -1;
+        }
+        int child = first;
+        for ( int iC = 0; iC < nC; iC++ ) {
+            long move = moves & columnMasks[iC];
+            if ( move == 0 ) continue;
+            pool.column[child] = (byte)iC;
+            pool.result[child] = (move & wins) != 0         ? RESULT_WIN
+                               : (mask | move) == boardMask ? RESULT_DRAW : RESULT_NONE;
+            pool.nChildren[child] = 0;
+            pool.visits.set(    child, 0);
+            pool.points.set(    child, 0);
+            pool.firstChild.set(child, 0);
+            child++;
+        }
+        pool.nChildren[slot] = (byte)nChildren;
+        pool.firstChild.set(slot, first); // Publishes the children to the other workers
+        return first;
+    }
+
+    // Every empty spot (playable now or not) that would complete four in a row for stones
+    private long winningSpots( long stones, long mask ) {
+        long spots = (stones << 1) & (stones << 2) & (stones << 3); // Vertical
+        for ( int shift = height-1; shift <= height+1; shift++ ) {   // The two diagonals and horizontal
+            long pair = (stones << shift) & (stones << 2*shift);
+            spots |= pair & (stones << 3*shift);
+            spots |= pair & (stones >>> shift);
+            pair   = (stones >>> shift) & (stones >>> 2*shift);
+            spots |= pair & (stones << shift);
+            spots |= pair & (stones >>> 3*shift);
+        }
+        return spots & (boardMask ^ mask);
+    }
+
+    private int winningChild() { // Child of the root that wins at once, -1 if none
+        int first = pool.firstChild.get(0);
+        for ( int child = first; child < first + pool.nChildren[0]; child++ ) {
+            if ( pool.result[child] == RESULT_WIN ) return child;
+        }
+        return -1;
+    }
+
+    private int mostVisitedChild() {
+        int first = pool.firstChild.get(0);
+        int best  = first;
+        for ( int child = first+1; child < first + pool.nChildren[0]; child++ ) {
+            if ( pool.visits.get(child) > pool.visits.get(best) ) best = child;
+        }
+        return best;
+    }
+
+    private float scoreOf( int child ) { // Between -1 (lost) and 1 (won), for the player to move at the root
+        if ( pool.result[child] == RESULT_WIN  ) return 1;
+        if ( pool.result[child] == RESULT_DRAW ) return 0;
+        int visits = pool.visits.get(child);
+        return visits == 0 ? 0 : (float)pool.points.get(child) / visits - 1;
+    }
+
+    // Called by worker 0 every CHECK_INTERVAL playouts
+    private void checkLimits( Connect4SearchInfo context ) {
+        long now = System.nanoTime();
+        if ( now >= nextPublishTime ) {
+            nextPublishTime = now + 1000000L*Connect4Strategy.STATISTICS_INTERVAL_MS;
+            publishStatistics(context);
+        }
+        if ( context.getStopTime() < deadline ) deadline = context.getStopTime(); // Set from outside
+        long playouts = playoutCount.get();
+        if ( context.isAborted() || now > deadline || playouts >= maxPlayouts ) {
+            isStopped = true;
+            return;
+        }
+        // Stop early once the most visited child cannot be caught up with in the time or playouts left
+        long left = maxPlayouts - playouts;
+        if ( deadline != Long.MAX_VALUE ) left = Math.min(left, (long)((double)playouts * (deadline-now) / (now-startTime+1)));
+        int first  = pool.firstChild.get(0);
+        int best   = 0, second = 0;
+        for ( int child = first; child < first + pool.nChildren[0]; child++ ) {
+            int visits = pool.visits.get(child);
+            if      ( visits > best   ) { second = best; best = visits; }
+            else if ( visits > second ) second = visits;
+        }
+        if ( best - second > left ) isStopped = true;
+    }
+
+    private void publishStatistics( Connect4SearchInfo context ) {
+        long allocated = Connect4Strategy.threadAllocatedBytes(Thread.currentThread().getId());
+        context.setSearchStatistics(playoutCount.get(), System.nanoTime() - startTime, 0, 0, 0, 0, 0, maxDepthReached,
+                                    allocated < 0 || startAllocated < 0 ? -1 : allocated - startAllocated);
+    }
+
+    private class Worker {
+        private final Connect4SearchInfo context; // Worker 0 only: looks after the limits and statistics
+        private final int[]              path;    // Slots from the root down to the current node
+        private long                     random;  // xorshift state
+
+        Worker( int iWorker, Connect4SearchInfo context ) {
+            this.context = context;
+            path   = new int[nC*nR+1];
+            random = 0x9E3779B97F4A7C15L * (iWorker+1) + System.nanoTime();
+        }
+
+        void run() {
+            while ( !isStopped ) {
+                playout();
+                if ( (playoutCount.incrementAndGet() % CHECK_INTERVAL) == 0 && context != null ) checkLimits(context);
+                if ( context != null && playoutCount.get() >= maxPlayouts ) isStopped = true;
+            }
+        }
+
+        private void playout() {
+            NodePool pool    = Connect4MctsStrategy.this.pool;
+            long     current = rootCurrent;
+            long     mask    = rootMask;
+            int      slot    = 0;
+            int      depth   = 0;
+            path[0] = 0;
+            pool.visits.incrementAndGet(0);
+            while ( pool.result[slot] == RESULT_NONE ) {
+                int first = pool.firstChild.get(slot);
+                if ( first <= 0 ) {
+                    if ( first < 0 || pool.visits.get(slot) < EXPAND_VISITS ) break;
+                    first = expand(pool, slot, current, mask);
+                    if ( first <= 0 ) break;
+                }
+                slot = select(pool, slot, first);
+                long move = (mask + bottomMask) & columnMasks[pool.column[slot]];
+                current ^= mask; // Now the stones of the player who moves next
+                mask    |= move;
+                path[++depth] = slot;
+                pool.visits.incrementAndGet(slot); // The virtual loss, until the points are added
+            }
+            if ( depth > maxDepthReached ) maxDepthReached = depth;
+
+            int points; // 2 win, 1 draw, 0 loss, for the player to move at slot
+            if      ( pool.result[slot] == RESULT_WIN  ) points = 0;
+            else if ( pool.result[slot] == RESULT_DRAW ) points = 1;
+            else                                         points = randomGame(current, mask);
+            for ( int iPly = depth; iPly >= 0; iPly-- ) {
+                points = 2 - points; // For the player who moved into path[iPly]
+                pool.points.addAndGet(path[iPly], points);
+            }
+        }
+
+        private int select( NodePool pool, int slot, int first ) {
+            double logVisits = Math.log(pool.visits.get(slot));
+            double bestValue = Double.NEGATIVE_INFINITY;
+            int    best      = first;
+            for ( int child = first; child < first + pool.nChildren[slot]; child++ ) {
+                int visits = pool.visits.get(child);
+                if ( visits == 0 ) return child;
+                double value = pool.points.get(child) / (2.0*visits) + EXPLORATION * Math.sqrt(logVisits / visits);
+                if ( value > bestValue ) {
+                    bestValue = value;
+                    best      = child;
+                }
+            }
+            return best;
+        }
+
+        // Plays random moves to the end of the game; returns its points for the player to move now
+        private int randomGame( long current, long mask ) {
+            for ( int ply = 0; ; ply++ ) {
+                long moves = (mask + bottomMask) & boardMask;
+                if ( moves == 0 ) return 1; // Draw
+                if ( (winningSpots(current, mask) & moves) != 0 ) return ply % 2 == 0 ? 2 : 0;
+                long threats = winningSpots(current ^ mask, mask) & moves;
+                long move;
+                if ( threats != 0 ) {
+                    if ( (threats & (threats-1)) != 0 ) return ply % 2 == 0 ? 0 : 2; // Cannot block both
+                    move = threats;
+                } else {
+                    move = randomBit(moves);
+                }
+                current ^= mask;
+                mask    |= move;
+            }
+        }
+
+        private long randomBit( long bits ) {
+            random ^= random << 13;
+            random ^= random >>> 7;
+            random ^= random << 17;
+            int k = (int)(((random >>> 32) * Long.bitCount(bits)) >>> 32);
+            for ( int i = 0; i < k; i++ ) bits &= bits - 1;
+            return bits & -bits;
+        }
+    }
+
+    private static class NodePool {
+        // The nodes of a tree, one slot each. Slot 0 is the root.
+        static final int EXPANDING = -1;
+        final AtomicIntegerArray firstChild; // Slot of the first child, 0 if none yet, EXPANDING while they are made
+        final AtomicIntegerArray visits;     // Including the visits whose playout is still running
+        final AtomicIntegerArray points;     // 2 per win, 1 per draw, for the player who moved into the node
+        final byte[]             nChildren;
+        final byte[]             column;     // Played into the node
+        final byte[]             result;     // RESULT_... of the move into the node
+        final AtomicInteger      nNodes = new AtomicInteger();
+
+        NodePool( int capacity ) {
+            firstChild = new AtomicIntegerArray(capacity);
+            visits     = new AtomicIntegerArray(capacity);
+            points     = new AtomicIntegerArray(capacity);
+            nChildren  = new byte[capacity];
+            column     = new byte[capacity];
+            result     = new byte[capacity];
+        }
+
+        void clear() { // Only the root is left, unvisited
+            nNodes.set(1);
+            firstChild.set(0, 0);
+            visits.set(    0, 0);
+            points.set(    0, 0);
+            nChildren[0] = 0;
+            result[0]    = RESULT_NONE;
+        }
+
+        int allocate( int n ) { // First of n consecutive new slots, -1 if the pool is full
+            if ( nNodes.get() + n > column.length ) return -1; // Keeps nNodes from growing without end
+            int first = nNodes.getAndAdd(n);
+            return first + n > column.length ? -1 : first;
+        }
+    }
+
+    @Override
+    public void setContext(InterfaceSearchInfo strategyContext) {
+        // Not used in this strategy
+    }
+
+    @Override
+    public InterfaceSearchInfo getContext() {
+        // Not used in this strategy
+        return null;
+    }
+}
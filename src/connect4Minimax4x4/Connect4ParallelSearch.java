@@ -0,0 +1,275 @@
+package connect4Minimax4x4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4ParallelSearch {
+    // Parallel version of Connect4Strategy.search() ("young brothers wait"):
+    //   At a node less than splitDepth moves below the root, the first move is searched alone.
+    //   Once it has set alpha, the remaining moves are forked as tasks on a work-stealing pool.
+    //   The first of them to reach beta tells the siblings still queued or running to stop,
+    //   as soon as it is done, whatever order they are joined in.
+    // Deeper nodes are searched single threaded by the strategy itself.
+    // All threads share the strategy's transposition table, but nothing else they write to:
+    //   every thread searches with buffers of its own (so its own killers, history and counters),
+    //   and takes what a split node needs from a stack of frames it keeps, so that once the
+    //   threads have warmed up, a search allocates nothing.
+
+    private final Connect4Strategy strategy;
+    private final ForkJoinPool     pool;
+    private final int              splitDepth;
+    private final ThreadState      callerState = new ThreadState(); // Of the thread calling search(), which may run tasks too
+
+    Connect4ParallelSearch( Connect4Strategy strategy, int nThreads, int splitDepth ) {
+        this.strategy   = strategy;
+        this.pool       = new ForkJoinPool(nThreads, Worker::new, null, false);
+        this.splitDepth = splitDepth;
+    }
+
+    void search( Connect4Position position, Connect4SearchInfo context ) {
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected void compute() { searchNode(position, context, 0); }
+        });
+    }
+
+    void shutdown() {
+        pool.shutdown(); // Each worker drops its buffers as it ends
+        callerState.release();
+    }
+
+    private void searchNode( Connect4Position position, Connect4SearchInfo context, int ply ) { // ply: moves below the root
+        ThreadState state = currentState();
+        context.setBuffers(state.getBuffers(position.nC(), position.nR()));
+        if ( ply >= splitDepth ) {
+            strategy.search(position, context);
+            return;
+        }
+        if ( !strategy.enterNode(position, context) ) return;
+
+        int   player    = position.getPlayer();
+        float alpha     = Connect4Strategy.getAlpha(context);
+        float beta      = Connect4Strategy.getBeta( context);
+        float alphaOrig = alpha;
+
+        if ( strategy.probe(position, context, alpha, beta) ) return;
+
+        Frame frame = state.pushFrame(position.nC(), position.nR());
+        try {
+            int nMoves = strategy.generateOrderedMoves(position, context.getPly(), context.getHashMove(), context.getBuffers(),
+                                                       frame.spots, frame.keys, frame.columns);
+            for ( int iMove = 0; iMove < nMoves; iMove++ ) {
+                frame.moves[iMove].set(frame.spots[iMove] % position.nC(), frame.spots[iMove] / position.nC());
+            }
+
+            // Eldest brother first, on this thread
+            MoveTask eldest = frame.tasks[0].set(position, context, ply, frame.moves[0], alpha, beta, context.getAbortFlag());
+            eldest.compute();
+            float score = eldest.score;
+            context.setBestMoveSoFar(frame.moves[0], score);
+            if ( score > alpha ) alpha = score;
+
+            if ( score == 1 || alpha >= beta ) {
+                strategy.recordCutoff(context.getBuffers(), context.getPly(), context.getMaxDepthSearchForThisPos(), 
+                                      player, frame.spots[0], true);
+            } else if ( nMoves > 1 ) {
+                // Young brothers, in parallel, all with the window the eldest left behind
+                Connect4AbortFlag siblingsFlag = frame.siblingsFlag;
+                siblingsFlag.reuse(context.getAbortFlag());
+                for ( int iMove = 1; iMove < nMoves; iMove++ ) {
+                    frame.tasks[iMove].set(position, context, ply, frame.moves[iMove], alpha, beta, siblingsFlag)
+                                      .setCutoffFlag(siblingsFlag).fork();
+                }
+                boolean isCutoff = false;
+                for ( int iMove = 1; iMove < nMoves; iMove++ ) {
+                    MoveTask task = frame.tasks[iMove];
+                    task.join(); // Even after a cutoff (when it stops right away): it uses this frame until it is done
+                    if ( isCutoff || !task.isComplete ) continue; // A sibling that did complete has cut off
+                    score = task.score;
+                    if ( score > context.getBestScoreSoFar() ) {
+                        context.setBestMoveSoFar(frame.moves[iMove], score);
+                    }
+                    if ( score > alpha ) alpha = score;
+                    if ( score == 1 || alpha >= beta ) {
+                        isCutoff = true; // siblingsFlag is aborted already
+                        strategy.recordCutoff(context.getBuffers(), context.getPly(), context.getMaxDepthSearchForThisPos(), 
+                                              player, frame.spots[iMove], false);
+                    }
+                }
+            }
+
+            strategy.store(position, context, alphaOrig, beta);
+        } finally {
+            state.popFrame();
+        }
+    }
+
+    private ThreadState currentState() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker ? ((Worker)thread).state : callerState;
+    }
+
+    // Score of one move of a split node, for the player to move there
+    private class MoveTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Connect4Position   posNew;                                       // After the move
+        private final Connect4SearchInfo opponentContext = new Connect4SearchInfo();  // Of posNew
+        private Connect4Position   position;
+        private Connect4SearchInfo context;
+        private int                ply;
+        private InterfaceIterator  iPos;
+        private float              alpha;
+        private float              beta;
+        private Connect4AbortFlag  abortFlag;
+        private Connect4AbortFlag  cutoffFlag;                                     // Aborted by this task if it reaches beta
+        float                      score;                                          // The result
+        boolean                    isComplete;                                     // ... if true, else it is not to be used
+
+        MoveTask( int nC, int nR ) { posNew = new Connect4Position(nC, nR); }
+
+        // Once the task has been joined, it can be set up again for another move
+        MoveTask set( Connect4Position position, Connect4SearchInfo context, int ply, InterfaceIterator iPos, 
+                      float alpha, float beta, Connect4AbortFlag abortFlag ) {
+            reinitialize();
+            this.position  = position;
+            this.context   = context;
+            this.ply       = ply;
+            this.iPos      = iPos;
+            this.alpha     = alpha;
+            this.beta      = beta;
+            this.abortFlag = abortFlag;
+            cutoffFlag     = null;
+            return this;
+        }
+
+        MoveTask setCutoffFlag( Connect4AbortFlag cutoffFlag ) {
+            this.cutoffFlag = cutoffFlag;
+            return this;
+        }
+
+        @Override
+        protected void compute() {
+            score      = scoreMove();
+            isComplete = !abortFlag.isAborted(); // Checked before this task aborts it itself
+            if ( isComplete && cutoffFlag != null && (score == 1 || score >= beta) ) cutoffFlag.abort();
+        }
+
+        private float scoreMove() {
+            if ( abortFlag.isAborted() ) return 0; // Result is not wanted any more
+            int player = position.getPlayer();
+            posNew.copyFrom(position);
+            posNew.setColor(iPos, player);
+            int isWin = posNew.isWinner(iPos);
+            if ( isWin != -1 ) return Connect4Strategy.scoreOfResult(isWin, player);
+
+            posNew.setPlayer(3-player);
+            Connect4Strategy.setOpponentContext(opponentContext, context, alpha, beta);
+            opponentContext.setAbortFlag(abortFlag);
+            searchNode(posNew, opponentContext, ply+1);
+            return -opponentContext.getBestScoreSoFar();
+        }
+    }
+
+    // What a split node needs: its moves, and a task (with the position after it) for each of them
+    private class Frame {
+        final int                 nC;
+        final int                 nR;
+        final int[]               spots;
+        final int[]               keys;
+        final int[]               columns;
+        final InterfaceIterator[] moves;
+        final MoveTask[]          tasks;
+        final Connect4AbortFlag   siblingsFlag = new Connect4AbortFlag(null);
+
+        Frame( int nC, int nR ) {
+            this.nC = nC;
+            this.nR = nR;
+            spots   = new int[nC];
+            keys    = new int[nC];
+            columns = new int[nC];
+            moves   = new InterfaceIterator[nC];
+            tasks   = new MoveTask[nC];
+            for ( int iMove = 0; iMove < nC; iMove++ ) {
+                moves[iMove] = new Connect4Iterator(nC, nR);
+                tasks[iMove] = new MoveTask(nC, nR);
+            }
+        }
+    }
+
+    // Everything one thread searches with. Its frames form a stack, since while a thread waits
+    //   for a task it may run other tasks, whose split nodes push frames on top of its own.
+    private class ThreadState {
+        private Connect4SearchBuffers buffers = null;
+        private final List<Frame>     frames  = new ArrayList<>();
+        private int                   nFrames = 0; // In use
+
+        Connect4SearchBuffers getBuffers( int nC, int nR ) {
+            if ( buffers == null || buffers.nC != nC || buffers.nR != nR ) {
+                release();
+                buffers = strategy.newBuffers(nC, nR); // Counted in the strategy's statistics
+            }
+            return buffers;
+        }
+
+        Frame pushFrame( int nC, int nR ) {
+            if ( nFrames == frames.size() ) frames.add(new Frame(nC, nR));
+            Frame frame = frames.get(nFrames);
+            if ( frame.nC != nC || frame.nR != nR ) {
+                frame = new Frame(nC, nR);
+                frames.set(nFrames, frame);
+            }
+            nFrames++;
+            return frame;
+        }
+
+        void popFrame() { nFrames--; }
+
+        void release() {
+            if ( buffers != null ) strategy.dropBuffers(buffers);
+            buffers = null;
+        }
+    }
+
+    private class Worker extends ForkJoinWorkerThread {
+        final ThreadState state = new ThreadState();
+
+        Worker( ForkJoinPool pool ) { super(pool); }
+
+        @Override
+        protected void onTermination( Throwable exception ) {
+            state.release();
+            super.onTermination(exception);
+        }
+    }
+
+    // Runs the same search single threaded and in parallel (each with a fresh table),
+    //   prints both times and returns the speedup of the parallel search.
+    static double reportSpeedup( InterfacePosition position, int nThreads, int splitDepth, int tableSizeMB ) {
+        Connect4Strategy serial   = new Connect4Strategy(tableSizeMB);
+        Connect4Strategy parallel = new Connect4Strategy(tableSizeMB);
+        parallel.setParallelism(nThreads, splitDepth);
+
+        Connect4SearchInfo serialContext   = new Connect4SearchInfo();
+        Connect4SearchInfo parallelContext = new Connect4SearchInfo();
+        long startTime = System.nanoTime();
+        serial.getBestMove(new Connect4Position(position), serialContext);
+        long midTime   = System.nanoTime();
+        parallel.getBestMove(new Connect4Position(position), parallelContext);
+        long endTime   = System.nanoTime();
+
+        double serialMs   = (double)(midTime - startTime)/1000000.0;
+        double parallelMs = (double)(endTime - midTime  )/1000000.0;
+        System.out.println("Serial search:   " + serialMs   + " milliseconds, score " + serialContext  .getBestScoreSoFar());
+        System.out.println("Parallel search: " + parallelMs + " milliseconds, score " + parallelContext.getBestScoreSoFar()
+                           + " (" + nThreads + " threads, split depth " + splitDepth + ")");
+        System.out.println("Speedup:         " + (serialMs / parallelMs));
+        parallel.setParallelism(1, 0); // Lets the worker threads go
+        return serialMs / parallelMs;
+    }
+}
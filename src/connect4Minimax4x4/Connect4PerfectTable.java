@@ -0,0 +1,145 @@
+package connect4Minimax4x4;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4PerfectTable {
+    // The game value and a best column of every position that can come up in a game
+    //   (red moving first), solved once offline by main() and written to a file.
+    // Only the values are stored: 2 bits per position, indexed by rank (see Connect4PositionRanking
+    //   and Connect4ValueArray, which also gives the file layout). The file is memory mapped and
+    //   read in place, so it takes next to no heap.
+    // lookup() finds a best column from the values of the children, at most nC more lookups,
+    //   and chooses the same column as the solver: bestEntry().
+    // Positions where the game is already over, and those no game gets to, are not in the table.
+
+    static final int MISS = -1;
+
+    private final Connect4PositionRanking ranking;
+    private final Connect4ValueArray      values;
+    private final int                     nC;
+    private final int                     nR;
+
+    // Tables already looked for, by geometry. A geometry without a file maps to null.
+    private static final Map<String,Connect4PerfectTable> defaults = new HashMap<>();
+
+    private Connect4PerfectTable( Connect4ValueArray values ) throws IOException {
+        this.values = values;
+        nC          = values.nC();
+        nR          = values.nR();
+        ranking     = new Connect4PositionRanking(nC, nR);
+        if ( values.getFirstRank() != 0 || values.size() != ranking.size() ) throw new IOException("Not a whole board");
+    }
+
+    static Connect4PerfectTable load( File file ) throws IOException {
+        return new Connect4PerfectTable(Connect4ValueArray.load(file));
+    }
+
+    static String defaultFileName( int nC, int nR ) {
+        return "connect4-" + nC + "x" + nR + ".perfect";
+    }
+
+    // The table for nC x nR in the working directory (or the directory in -Dconnect4.tables), null if there is none
+    static synchronized Connect4PerfectTable getDefault( int nC, int nR ) {
+        String name = defaultFileName(nC, nR);
+        if ( !defaults.containsKey(name) ) {
+            Connect4PerfectTable table = null;
+            File file = new File(System.getProperty("connect4.tables", "."), name);
+            if ( file.isFile() ) {
+                try {
+                    table = load(file);
+                    if ( table.nC != nC || table.nR != nR ) table = null;
+                } catch ( IOException e ) {
+                    System.err.println("Error(Connect4PerfectTable): cannot read "+file+": "+e.getMessage());
+                }
+            }
+            defaults.put(name, table);
+        }
+        return defaults.get(name);
+    }
+
+    // Entry (see bestEntry()) for position, or MISS.
+    // position is changed during the lookup, but is back as it was when this returns.
+    int lookup( Connect4Position position ) {
+        if ( position.nC() != nC || position.nR() != nR ) return MISS;
+        if ( values.get(ranking.rank(position)) == Connect4ValueArray.UNKNOWN ) return MISS;
+        return bestEntry(position, ranking, values);
+    }
+
+    // The value of position and a best column, packed into an entry:
+    //   bits 0..1 the value for the player to move + 1 (0 loss, 1 draw, 2 win), bits 2..7 the column.
+    // The column is the first, center first, of those with the best value, except that a column
+    //   that wins right away goes before one that only wins later.
+    // childValues has the values of the children of position where the game goes on (any others are not looked up).
+    // position must not be over yet; it is changed here, but is back as it was when this returns.
+    static int bestEntry( Connect4Position position, Connect4PositionRanking ranking, Connect4ValueArray childValues ) {
+        int     nC          = position.nC();
+        int     bestValue   = -2;
+        int     bestColumn  = -1;
+        boolean isBestWin   = false; // Whether the best column wins right away
+        for ( int iOrder = 0; iOrder < nC; iOrder++ ) {
+            int iC = nC/2 + ((iOrder % 2 == 0) ? iOrder/2 : -(iOrder+1)/2); // Center first
+            if ( iC < 0 || iC >= nC || !position.canPlay(iC) ) continue;
+            position.playColumn(iC);
+            int isWin = position.isWinnerInColumn(iC);
+            int value = isWin > 0  ? 1                                // Only the mover can win here
+                      : isWin == 0 ? 0
+                      :              -Connect4ValueArray.valueOf(childValues.get(ranking.rank(position)));
+            position.undoColumn(iC);
+            if ( value > bestValue || (value == 1 && isWin > 0 && !isBestWin) ) { // Finish the game when possible
+                bestValue  = value;
+                bestColumn = iC;
+                isBestWin  = isWin > 0;
+            }
+        }
+        return (bestValue+1) | (bestColumn << 2);
+    }
+
+    static int valueOf(  int entry ) { return (entry & 3) - 1; } // 1 win, 0 draw, -1 loss for the player to move
+    static int columnOf( int entry ) { return entry >>> 2;     }
+
+    // Offline generator: java connect4Minimax4x4.Connect4PerfectTable [nC nR [file]]
+    //   The whole board is solved in memory (2 bits per position), so this is for small boards;
+    //   bigger ones have Connect4Tablebase.
+    public static void main( String[] args ) throws IOException {
+        int    nC   = args.length >= 2 ? Integer.parseInt(args[0]) : 4;
+        int    nR   = args.length >= 2 ? Integer.parseInt(args[1]) : 4;
+        String name = args.length >= 3 ? args[2] : defaultFileName(nC, nR);
+
+        long startTime = System.nanoTime();
+        Connect4PositionRanking ranking  = new Connect4PositionRanking(nC, nR);
+        Connect4ValueArray      values   = new Connect4ValueArray(nC, nR, 0, ranking.size());
+        Connect4Position        position = new Connect4Position(nC, nR);
+        position.setPlayer(1);
+        long[] nSolved = new long[1];
+        int value = solve(position, ranking, values, nSolved);
+        values.write(new File(name));
+        long endTime = System.nanoTime();
+        System.out.println(nC+"x"+nR+": value "+value+" for the first player, "+nSolved[0]+" positions written to "+name
+                           +" in "+((double)(endTime - startTime)/1000000.0)+" milliseconds");
+    }
+
+    // Value of position for the player to move; solves every position below it into values first.
+    // There is no pruning, as every reachable position has to be visited anyway.
+    private static int solve( Connect4Position position, Connect4PositionRanking ranking, Connect4ValueArray values,
+                              long[] nSolved ) {
+        long rank = ranking.rank(position);
+        int  code = values.get(rank);
+        if ( code != Connect4ValueArray.UNKNOWN ) return Connect4ValueArray.valueOf(code);
+
+        for ( int iC = 0; iC < position.nC(); iC++ ) {
+            if ( !position.canPlay(iC) ) continue;
+            position.playColumn(iC);
+            if ( position.isWinnerInColumn(iC) == -1 ) solve(position, ranking, values, nSolved);
+            position.undoColumn(iC);
+        }
+        int value = valueOf(bestEntry(position, ranking, values));
+        values.set(rank, value);
+        nSolved[0]++;
+        return value;
+    }
+}
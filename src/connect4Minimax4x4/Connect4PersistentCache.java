@@ -0,0 +1,313 @@
+package connect4Minimax4x4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4PersistentCache {
+    // Proven search results (the game value and best move of a position) kept in a file,
+    //   so that they outlive the strategy, and the program, that found them.
+    // The file is append only: a header (MAGIC, nC, nR, 0) and then 40 byte records
+    //   long key        : as in Connect4TranspositionTable, the smaller of the Zobrist keys of the
+    //                     position and of its mirror image
+    //   long exact      : that same position exactly (Connect4Position.getExactPosition())
+    //   long exactColors: ... and its colors (Connect4Position.getExactColors())
+    //   long data       : packed as in Connect4TranspositionTable, the move for that orientation
+    //   long check      : checkOf(key, exact, exactColors, data)
+    // A result is only used for the very position it was found for: as it is kept for good,
+    //   keys that collide are always told apart by the exact position.
+    // It is read when the cache is created. A record that does not check out (a write cut short
+    //   by a crash) ends the file there, and the file is cut back to the last good record.
+    //
+    // The search never waits for the cache, and add() allocates nothing:
+    //   - add() puts a new record into a lock-free ring of RING_SIZE records. A background thread
+    //     (the writer) takes records from there every BATCH_SIZE records and on flush(), puts them
+    //     into the in-memory table, and appends them to the file. If the ring is full, the record
+    //     is dropped; a search that needs it again proves it again.
+    //   - lookup() takes no lock either. Only the writer changes the table: a slot's data is
+    //     written last and read first, so a slot that has data is complete, and a grown table is
+    //     only put in place once it is filled.
+
+    static final int MAGIC        = 0x4334505A; // "C4PZ"
+    static final int HEADER_SIZE  = 16;
+    static final int RECORD_SIZE  = 40;
+    static final int BATCH_SIZE   = 1024;    // Records, a power of 2
+    static final int RING_SIZE    = 1 << 14; // Records, a power of 2
+    static final long MISS        = Connect4TranspositionTable.MISS;
+
+    private final File   file;
+    private final String name; // In defaults
+    private final int    nC;
+    private final int    nR;
+    private volatile boolean isWritable = true;  // false if the file turned out to be something else
+    private volatile boolean isClosed   = false; // Set by release() once nobody uses the cache any more
+    private int              nUsers     = 0;     // Holders of the cache from getDefault(), guarded by the class
+
+    // In memory copy of the file
+    private volatile Table table = new Table(1024);
+
+    // Records on their way from add() to the writer
+    private final long[]          ring      = new long[4*RING_SIZE];          // key, exact, exactColors, data, key, ...
+    private final AtomicLongArray published = new AtomicLongArray(RING_SIZE); // Per slot: sequence number+1 of its record
+    private final AtomicLong      claimed   = new AtomicLong();               // Sequence number of the next record
+    private volatile long         drained   = 0;                              // ... of the next record the writer takes
+
+    // Writer thread only
+    private final long[]     batch  = new long[4*BATCH_SIZE];
+    private final ByteBuffer output = ByteBuffer.allocate(HEADER_SIZE + RECORD_SIZE*BATCH_SIZE);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Connect4PersistentCacheWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Runnable drainTask = this::drain; // Allocated once
+
+    private static final Map<String,Connect4PersistentCache> defaults = new HashMap<>();
+
+    // Open addressing, where a data of MISS marks an empty slot
+    private static final class Table {
+        final long[]          keys;
+        final long[]          exacts; // exact, exactColors per slot
+        final AtomicLongArray datas;
+        int                   nKeys = 0;
+
+        Table( int size ) {
+            keys   = new long[size];
+            exacts = new long[2*size];
+            datas  = new AtomicLongArray(size);
+        }
+    }
+
+    Connect4PersistentCache( File file, int nC, int nR ) {
+        this.file = file;
+        this.name = file.getName();
+        this.nC   = nC;
+        this.nR   = nR;
+        load();
+    }
+
+    // The cache for nC x nR in the directory given by -Dconnect4.cache, null if that is not set.
+    // It is shared: every caller is to release() it once done with it.
+    static synchronized Connect4PersistentCache getDefault( int nC, int nR ) {
+        String dir = System.getProperty("connect4.cache");
+        if ( dir == null ) return null;
+        String name = "connect4-" + nC + "x" + nR + ".cache";
+        if ( !defaults.containsKey(name) ) {
+            new File(dir).mkdirs();
+            defaults.put(name, new Connect4PersistentCache(new File(dir, name), nC, nR));
+        }
+        Connect4PersistentCache cache = defaults.get(name);
+        cache.nUsers++;
+        return cache;
+    }
+
+    // Done with a cache from getDefault(). When the last holder lets go, the writer writes what is
+    //   left and stops, and the next getDefault() reads the file again.
+    void release() {
+        synchronized ( Connect4PersistentCache.class ) {
+            if ( --nUsers > 0 ) return;
+            if ( defaults.get(name) == this ) defaults.remove(name);
+        }
+        isClosed = true;
+        flush();
+        writer.shutdown(); // The drain just queued still runs
+    }
+
+    static long checkOf( long key, long exact, long exactColors, long data ) {
+        return (key * 0x9E3779B97F4A7C15L) ^ (exact * 0xBF58476D1CE4E5B9L) ^ (exactColors * 0x94D049BB133111EBL)
+             ^ (data * 0xC2B2AE3D27D4EB4FL) ^ MAGIC;
+    }
+
+    // Packed data stored for position (its move in the orientation of position), or MISS
+    long lookup( Connect4Position position ) {
+        boolean isMirrored = position.getMirroredZobristKey() < position.getZobristKey();
+        long    data       = lookupLoaded(table, Math.min(position.getZobristKey(), position.getMirroredZobristKey()),
+                                          position.getExactPosition(isMirrored), position.getExactColors(isMirrored));
+        return data == MISS || !isMirrored ? data : mirrorData(data, nC);
+    }
+
+    // Remembers a proven result for position (data with the move in its orientation);
+    //   it reaches the table and the file when the writer next takes the records in the ring
+    void add( Connect4Position position, long data ) {
+        if ( isClosed || !isWritable ) return;
+        boolean isMirrored  = position.getMirroredZobristKey() < position.getZobristKey();
+        long    key         = Math.min(position.getZobristKey(), position.getMirroredZobristKey());
+        long    exact       = position.getExactPosition(isMirrored);
+        long    exactColors = position.getExactColors(isMirrored);
+        if ( lookupLoaded(table, key, exact, exactColors) != MISS ) return; // A proven result never changes
+        if ( isMirrored ) data = mirrorData(data, nC);
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if ( sequence - drained >= RING_SIZE ) return; // Full
+        } while ( !claimed.compareAndSet(sequence, sequence+1) );
+        int slot = (int)sequence & (RING_SIZE-1);
+        ring[4*slot  ] = key;
+        ring[4*slot+1] = exact;
+        ring[4*slot+2] = exactColors;
+        ring[4*slot+3] = data;
+        published.set(slot, sequence+1); // After the record, so the writer sees it whole
+        if ( ((sequence+1) & (BATCH_SIZE-1)) == 0 ) flush();
+    }
+
+    private static long mirrorData( long data, int nC ) { // The same result with the move mirrored
+        int move = Connect4TranspositionTable.moveOf(data);
+        return Connect4TranspositionTable.pack(Connect4TranspositionTable.scoreOf(data), Connect4TranspositionTable.boundOf(data),
+                                               Connect4Strategy.mirrorMove(move, nC), Connect4TranspositionTable.depthOf(data));
+    }
+
+    // Has the writer take the records in the ring, in the background
+    void flush() {
+        try {
+            writer.execute(drainTask);
+        } catch ( RejectedExecutionException e ) {
+            // Released, and what was left has been written
+        }
+    }
+
+    private void drain() { // On the writer thread
+        int nRecords = 0;
+        for ( long sequence = drained; published.get((int)sequence & (RING_SIZE-1)) == sequence+1; sequence++ ) {
+            int  slot        = (int)sequence & (RING_SIZE-1);
+            long key         = ring[4*slot  ];
+            long exact       = ring[4*slot+1];
+            long exactColors = ring[4*slot+2];
+            long data        = ring[4*slot+3];
+            drained = sequence+1; // The slot can be reused from here on
+            if ( lookupLoaded(table, key, exact, exactColors) != MISS ) continue; // Added twice on its way here
+            put(key, exact, exactColors, data);
+            batch[4*nRecords  ] = key;
+            batch[4*nRecords+1] = exact;
+            batch[4*nRecords+2] = exactColors;
+            batch[4*nRecords+3] = data;
+            if ( ++nRecords == BATCH_SIZE ) {
+                append(batch, nRecords);
+                nRecords = 0;
+            }
+        }
+        if ( nRecords > 0 ) append(batch, nRecords);
+    }
+
+    private static long lookupLoaded( Table table, long key, long exact, long exactColors ) {
+        int mask = table.keys.length-1;
+        for ( int slot = slotOf(key, table.keys.length); ; slot = (slot+1) & mask ) {
+            long data = table.datas.get(slot);
+            if ( data == MISS ) return MISS;
+            if ( table.keys[slot] == key && table.exacts[2*slot] == exact && table.exacts[2*slot+1] == exactColors ) return data;
+        }
+    }
+
+    private static int slotOf( long key, int length ) {
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> 40) & (length-1);
+    }
+
+    // On the writer thread (or while loading, before anyone else has the cache)
+    private void put( long key, long exact, long exactColors, long data ) {
+        Table current = table;
+        if ( 2*(current.nKeys+1) > current.keys.length ) { // Keep it at most half full
+            Table grown = new Table(2*current.keys.length);
+            for ( int i = 0; i < current.keys.length; i++ ) {
+                long oldData = current.datas.get(i);
+                if ( oldData != MISS ) put(grown, current.keys[i], current.exacts[2*i], current.exacts[2*i+1], oldData);
+            }
+            put(grown, key, exact, exactColors, data);
+            table = grown; // Complete
+        } else {
+            put(current, key, exact, exactColors, data);
+        }
+    }
+
+    private static void put( Table table, long key, long exact, long exactColors, long data ) {
+        int mask = table.keys.length-1;
+        int slot = slotOf(key, table.keys.length);
+        while ( table.datas.get(slot) != MISS 
+                && !(table.keys[slot] == key && table.exacts[2*slot] == exact && table.exacts[2*slot+1] == exactColors) ) {
+            slot = (slot+1) & mask;
+        }
+        if ( table.datas.get(slot) == MISS ) table.nKeys++;
+        table.keys[    slot  ] = key;
+        table.exacts[2*slot  ] = exact;
+        table.exacts[2*slot+1] = exactColors;
+        table.datas.set(slot, data); // Last
+    }
+
+    private void load() {
+        if ( !file.isFile() ) return;
+        try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE) ) {
+            if ( channel.size() < HEADER_SIZE ) { // Crashed while the header was being written
+                channel.truncate(0);
+                return;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            if ( header.getInt(0) != MAGIC || header.getInt(4) != nC || header.getInt(8) != nR ) {
+                System.err.println("Error(Connect4PersistentCache): "+file+" is not a cache of "+nC+"x"+nR+" positions");
+                isWritable = false;
+                return;
+            }
+            ByteBuffer records = ByteBuffer.allocate(RECORD_SIZE * 4096);
+            long       offset  = HEADER_SIZE;
+            boolean    isTorn  = false;
+            while ( !isTorn ) {
+                records.clear();
+                int nRead = channel.read(records, offset);
+                if ( nRead < RECORD_SIZE ) { isTorn = nRead > 0; break; }
+                for ( int iRecord = 0; iRecord < nRead / RECORD_SIZE; iRecord++ ) {
+                    long key         = records.getLong(iRecord*RECORD_SIZE);
+                    long exact       = records.getLong(iRecord*RECORD_SIZE +  8);
+                    long exactColors = records.getLong(iRecord*RECORD_SIZE + 16);
+                    long data        = records.getLong(iRecord*RECORD_SIZE + 24);
+                    if ( records.getLong(iRecord*RECORD_SIZE + 32) != checkOf(key, exact, exactColors, data) ) {
+                        isTorn = true;
+                        break;
+                    }
+                    put(key, exact, exactColors, data);
+                    offset += RECORD_SIZE;
+                }
+            }
+            if ( isTorn || offset < channel.size() ) {
+                System.err.println("Warning(Connect4PersistentCache): "+file+" ends in a partly written record, cut back to "+offset+" bytes");
+                channel.truncate(offset);
+            }
+        } catch ( IOException e ) {
+            System.err.println("Error(Connect4PersistentCache): cannot read "+file+": "+e.getMessage());
+            isWritable = false;
+        }
+    }
+
+    private void append( long[] records, int nRecords ) { // On the writer thread
+        try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                     StandardOpenOption.WRITE, StandardOpenOption.APPEND) ) {
+            output.clear();
+            if ( channel.size() == 0 ) output.putInt(MAGIC).putInt(nC).putInt(nR).putInt(0);
+            for ( int iRecord = 0; iRecord < nRecords; iRecord++ ) {
+                long key         = records[4*iRecord];
+                long exact       = records[4*iRecord+1];
+                long exactColors = records[4*iRecord+2];
+                long data        = records[4*iRecord+3];
+                output.putLong(key).putLong(exact).putLong(exactColors).putLong(data)
+                      .putLong(checkOf(key, exact, exactColors, data));
+            }
+            output.flip();
+            while ( output.hasRemaining() ) channel.write(output);
+            channel.force(false);
+        } catch ( IOException e ) {
+            System.err.println("Error(Connect4PersistentCache): cannot write "+file+": "+e.getMessage());
+        }
+    }
+
+    int size() { // Results in the table; those still in the ring are not counted yet
+        return table.nKeys;
+    }
+}
@@ -1,32 +1,278 @@
 package connect4Minimax4x4;
 
+import java.util.Arrays;
 
 //author: Gary Kalmanovich; rights reserved
 
 public class Connect4Position implements InterfacePosition {
-    // This implementation is designed for at most 7 columns by 6 rows
-    // It packs the entire position into a single long
-    // Though, there is some sparseness to the packing
+    // This implementation is designed for any board up to 8 columns by 7 rows
+    //   (nC*(nR+1) <= 64, so that the bitboards below fit in a long).
+    // Up to 7x6 it packs the entire position into a single long:
     
-    // Rightmost 21=3*7 bits are for storing column sizes. (3 bits accommodates 0..7)
-    // Next, going to the left 42=6*7*1 bits are binary for colors. (Either red or yellow) 
+    // Rightmost 3*nC bits are for storing column sizes. (3 bits accommodates 0..7)
+    // Next, going to the left nR*nC bits are binary for colors, column by column, bottom up. (Either red or yellow) 
     // Finally, the left most bit is for the player
-    
+    //
+    // When 3*nC + nR*nC + 1 > 64 (8x5 and up) the colors go into a second long, colors, instead.
+    //   getRawPosition() is then a 64 bit hash of the two longs, not the position itself.
+    //
+    // Alongside the packed long, the position is also kept as two bitboards,
+    //   which is what the win check and the legal move check work from.
+    // Each column takes nR+1 bits (bottom row first). The extra top bit of each
+    //   column is a sentinel that is always 0, so shifted lines never wrap
+    //   around from one column into the next.
+    // current: spots held by the player whose move it is
+    // mask   : all filled spots
+    //
+    // The packed long of the mirror image is kept up to date as well, so the
+    //   transposition table key (the smaller of the two) costs nothing to get.
+    //   The same goes for the Zobrist keys of the position and of its mirror image,
+    //   with spot iC*height+iR_ (see Zobrist).
+    // playColumn()/undoColumn() make and take back moves in place, for searching
+    //   without copying the position. The columns played are kept on a stack.
+    //
+    // For valuePosition(), every window of four spots in a row also keeps which of its spots
+    //   are red and which are yellow (4 bits each). addChip()/removeChip() update only the
+    //   windows through the spot, and threatScore with them, so the value costs nothing to get.
 
     private long position = 0;
+    private long mirrored = 0; // position of the left-right mirror image
+    private long colors         = 0; // Two-long boards only: the color bits
+    private long mirroredColors = 0;
+    private long zobrist         = 0;
+    private long mirroredZobrist = 0;
+    private boolean isTwoLong   = false;
+    private int     colorBase   = 0; // Bit of the first color: after the column sizes, or 0 in colors
     private int nC = 0;
     private int nR = 0;
 
+    private long current    = 0;
+    private long mask       = 0;
+    private int  height     = 0; // nR+1, bits per column
+    private long bottomMask = 0; // bottom spot of every column
+    private long boardMask  = 0; // every playable spot (no sentinels)
+    private long[][] cellLines;   // cellLines[iC*height+iR_] = every four in a row through that spot
+    private int[]    moveStack;   // Columns played with playColumn(), oldest first
+    private int      nMoves     = 0;
+
+    private int[][] cellWindows;     // cellWindows[iC*height+iR_] = 4*window+k for every window through that spot, k-th in it
+    private byte[]  windowOddRows;   // Per window, which of its 4 spots are on an odd row (1st, 3rd, ... from the bottom)
+    private byte[]  windowRed;       // Per window, which of its 4 spots are red
+    private byte[]  windowYellow;    //   and which are yellow
+    private int     threatScore = 0; // Sum of WINDOW_SCORES over all windows, from red's point of view
+
+    // Line masks and windows depend only on the board geometry, so they are built once per nC x nR and shared
+    private static final long[][][][] lineMasksByGeometry   = new long[9][9][][];
+    private static final int[][][][]  cellWindowsByGeometry = new int[9][9][][];
+    private static final byte[][][]   oddRowsByGeometry     = new byte[9][9][];
+
+    // Weights of valuePosition(). A window counts only while it holds chips of one player:
+    //   two of them are worth TWO_SCORE, three THREE_SCORE, and PARITY_SCORE more if the missing spot
+    //   is on a row that suits its player (odd rows for red, who moves first, even rows for yellow):
+    //   those are the threats that tend to decide the game once the board fills up.
+    static final int   TWO_SCORE    = 2;
+    static final int   THREE_SCORE  = 8;
+    static final int   PARITY_SCORE = 8;
+    static final float VALUE_SCALE  = 64f; // A score this large is valued 0.5
+    // WINDOW_SCORES[(red<<8)|(yellow<<4)|oddRows] for the 4 bit patterns of a window
+    private static final int[] WINDOW_SCORES = new int[1 << 12];
+    static {
+        for ( int red = 0; red < 16; red++ ) {
+            for ( int yellow = 0; yellow < 16; yellow++ ) {
+                for ( int oddRows = 0; oddRows < 16; oddRows++ ) {
+                    if ( red != 0 && yellow != 0 ) continue;
+                    int     chips   = red | yellow;
+                    int     empty   = ~chips & 15;
+                    boolean isRed   = red != 0;
+                    int     score   = 0;
+                    if ( Integer.bitCount(chips) == 2 ) score = TWO_SCORE;
+                    if ( Integer.bitCount(chips) == 3 ) {
+                        score = THREE_SCORE;
+                        if ( ((oddRows & empty) != 0) == isRed ) score += PARITY_SCORE;
+                    }
+                    WINDOW_SCORES[(red << 8) | (yellow << 4) | oddRows] = isRed ? score : -score;
+                }
+            }
+        }
+    }
+
     Connect4Position( int nC, int nR) {
         position = 0;
         this.nC = nC;
         this.nR = nR;
+        initMasks();
+    }
+
+    // The position whose getRawPosition() is rawPosition (boards that fit in one long only)
+    Connect4Position( int nC, int nR, long rawPosition ) {
+        this(nC, nR);
+        long yellow = 0;
+        for ( int iC = 0; iC < nC; iC++ ) {
+            int nColumnChipCount = (int)((rawPosition >>> (3*iC)) & 7L);
+            for ( int iR_ = 0; iR_ < nColumnChipCount; iR_++ ) {
+                int color = (int)((rawPosition >>> colorBit(iC, iR_)) & 1L) + 1;
+                addChip(iC, iR_, color);
+                mask |= cellBit(iC, iR_);
+                if ( color == 2 ) yellow |= cellBit(iC, iR_);
+            }
+        }
+        setPlayerAndCurrent((int)(rawPosition >>> 63) + 1, yellow);
+    }
+
+    // The position with red and yellow chips where their bits are set (bitboards as getAllStones()), any board
+    Connect4Position( int nC, int nR, long red, long yellow, int player ) {
+        this(nC, nR);
+        for ( int iC = 0; iC < nC; iC++ ) {
+            for ( int iR_ = 0; iR_ < nR; iR_++ ) {
+                long bit = cellBit(iC, iR_);
+                if ( ((red | yellow) & bit) == 0 ) break;
+                addChip(iC, iR_, (red & bit) != 0 ? 1 : 2);
+                mask |= bit;
+            }
+        }
+        setPlayerAndCurrent(player, yellow);
     }
 
     Connect4Position( InterfacePosition pos ) {
-        position = pos.getRawPosition();
         nC       = pos.nC();
         nR       = pos.nR();
+        initMasks();
+        if ( pos instanceof Connect4Position ) {
+            copyFrom((Connect4Position)pos);
+        } else {
+            copyColors(pos);
+        }
+    }
+
+    // Makes this position the same as pos, of the same board size, without allocating anything
+    void copyFrom( Connect4Position pos ) {
+        position        = pos.position;
+        mirrored        = pos.mirrored;
+        colors          = pos.colors;
+        mirroredColors  = pos.mirroredColors;
+        zobrist         = pos.zobrist;
+        mirroredZobrist = pos.mirroredZobrist;
+        current         = pos.current;
+        mask            = pos.mask;
+        threatScore     = pos.threatScore;
+        nMoves          = pos.nMoves;
+        System.arraycopy(pos.windowRed,    0, windowRed,    0, windowRed.length);
+        System.arraycopy(pos.windowYellow, 0, windowYellow, 0, windowYellow.length);
+        System.arraycopy(pos.moveStack,    0, moveStack,    0, nMoves); // So that the copy can undo them too
+    }
+
+    private void initMasks() {
+        if ( nC < 1 || nR < 1 || nR > 7 || nC*(nR+1) > 64 ) {
+            System.err.println("Error(Connect4Position): a "+nC+"x"+nR+" board is not supported!!!");
+        }
+        isTwoLong  = isTwoLong(nC, nR);
+        colorBase  = isTwoLong ? 0 : 3*nC;
+        height     = nR+1;
+        bottomMask = 0;
+        boardMask  = 0;
+        for ( int iC = 0; iC < nC; iC++ ) {
+            bottomMask |= 1L << (iC*height);
+            boardMask  |= ((1L << nR) - 1) << (iC*height);
+        }
+        cellLines = getLineMasks(nC, nR);
+        moveStack = new int[nC*nR];
+        getWindows(nC, nR);
+        cellWindows   = cellWindowsByGeometry[nC][nR];
+        windowOddRows = oddRowsByGeometry[nC][nR];
+        windowRed     = new byte[windowOddRows.length];
+        windowYellow  = new byte[windowOddRows.length];
+    }
+
+    private static synchronized long[][] getLineMasks( int nC, int nR ) {
+        if ( lineMasksByGeometry[nC][nR] == null ) {
+            int height = nR+1;
+            int[][] directions = { {1,0}, {0,1}, {1,1}, {1,-1} }; // (dC,dR_)
+            long[][] lines = new long[nC*height][];
+            for ( int iC = 0; iC < nC; iC++ ) {
+                for ( int iR_ = 0; iR_ < nR; iR_++ ) {
+                    long[] found  = new long[16]; // At most 4 windows in each of 4 directions
+                    int    nFound = 0;
+                    for ( int[] dir : directions ) {
+                        for ( int offset = -3; offset <= 0; offset++ ) { // Window start relative to the spot
+                            long window = 0;
+                            for ( int k = 0; k < 4; k++ ) {
+                                int jC  = iC  + (offset+k)*dir[0];
+                                int jR_ = iR_ + (offset+k)*dir[1];
+                                if ( jC < 0 || jC >= nC || jR_ < 0 || jR_ >= nR ) { window = 0; break; }
+                                window |= 1L << (jC*height + jR_);
+                            }
+                            if ( window != 0 ) found[nFound++] = window;
+                        }
+                    }
+                    lines[iC*height + iR_] = Arrays.copyOf(found, nFound);
+                }
+            }
+            lineMasksByGeometry[nC][nR] = lines;
+        }
+        return lineMasksByGeometry[nC][nR];
+    }
+
+    private static synchronized void getWindows( int nC, int nR ) { // Fills in cellWindowsByGeometry and oddRowsByGeometry
+        if ( cellWindowsByGeometry[nC][nR] != null ) return;
+        int height = nR+1;
+        int[][] directions = { {1,0}, {0,1}, {1,1}, {1,-1} }; // (dC,dR_)
+        int[][] found      = new int[nC*height][16];
+        int[]   nFound     = new int[nC*height];
+        byte[]  oddRows    = new byte[4*nC*nR]; // More than enough
+        int     nWindows   = 0;
+        for ( int iC = 0; iC < nC; iC++ ) {
+            for ( int iR_ = 0; iR_ < nR; iR_++ ) { // (iC,iR_) is where the window starts
+                for ( int[] dir : directions ) {
+                    int lastC  = iC  + 3*dir[0];
+                    int lastR_ = iR_ + 3*dir[1];
+                    if ( lastC >= nC || lastR_ < 0 || lastR_ >= nR ) continue;
+                    for ( int k = 0; k < 4; k++ ) {
+                        int jC  = iC  + k*dir[0];
+                        int jR_ = iR_ + k*dir[1];
+                        int iCell = jC*height + jR_;
+                        found[iCell][nFound[iCell]++] = 4*nWindows + k;
+                        if ( jR_ % 2 == 0 ) oddRows[nWindows] |= 1 << k;
+                    }
+                    nWindows++;
+                }
+            }
+        }
+        int[][] cellWindows = new int[nC*height][];
+        for ( int iCell = 0; iCell < nC*height; iCell++ ) cellWindows[iCell] = Arrays.copyOf(found[iCell], nFound[iCell]);
+        oddRowsByGeometry[nC][nR]     = Arrays.copyOf(oddRows, nWindows);
+        cellWindowsByGeometry[nC][nR] = cellWindows;
+    }
+
+    private void copyColors( InterfacePosition pos ) { // Any other implementation, spot by spot
+        InterfaceIterator iPos   = new Connect4Iterator(nC, nR);
+        long              yellow = 0;
+        for ( int iC = 0; iC < nC; iC++ ) {
+            for ( int iR_ = 0; iR_ < nR; iR_++ ) {
+                iPos.set(iC, nR-1-iR_);
+                int color = pos.getColor(iPos);
+                if ( color == 0 ) break;
+                addChip(iC, iR_, color);
+                mask |= cellBit(iC, iR_);
+                if ( color == 2 ) yellow |= cellBit(iC, iR_);
+            }
+        }
+        setPlayerAndCurrent(pos.getPlayer(), yellow);
+    }
+
+    private void setPlayerAndCurrent( int player, long yellow ) { // Once every chip is in
+        if ( player == 2 ) {
+            position |= 1L << 63;
+            mirrored |= 1L << 63;
+            zobrist         ^= Zobrist.PLAYER2;
+            mirroredZobrist ^= Zobrist.PLAYER2;
+            current   = yellow;
+        } else {
+            current   = mask & ~yellow;
+        }
+    }
+
+    private long cellBit( int iC, int iR_ ) { // iR_ numbers the rows from the bottom up
+        return 1L << (iC*height + iR_);
     }
 
     private int getColumnChipCount( InterfaceIterator iPos ) { // Number of chips in column iC
@@ -34,48 +280,142 @@ public class Connect4Position implements InterfacePosition {
     }
     
     private int getColumnChipCount( int iC ) { // Number of chips in column iC
-        // fill this in based on:
-        // Rightmost 21=3*7 bits are for storing column sizes. (3 bits accommodates 0..7)
-        // Next, going to the left 42=6*7*1 bits are binary for colors. (Either red or yellow) 
-        // Finally, the left most bit is for the player
     	return (int) ((position >>> (3*iC)) & 7L);
     }
+
+    public int getColumnHeight( int iC ) { // Number of chips in column iC
+        return getColumnChipCount(iC);
+    }
+
+    // Writes the columns that still have room into columns[0..], left to right, and returns how many.
+    // Works straight from the column sizes in the packed long, so nothing is allocated.
+    public int getPlayableColumns( int[] columns ) {
+        int nColumns = 0;
+        for ( int iC = 0; iC < nC; iC++ ) {
+            if ( ((position >>> (3*iC)) & 7L) < nR ) columns[nColumns++] = iC;
+        }
+        return nColumns;
+    }
     
     @Override public int nC() { return nC; } 
     @Override public int nR() { return nR; }
 
     @Override
     public long getRawPosition() { 
-        return position;
+        return isTwoLong ? twoLongKey(position, colors) : position;
+    }
+
+    // The raw position of the left-right mirror image of this position
+    public long getMirroredRawPosition() {
+        return isTwoLong ? twoLongKey(mirrored, mirroredColors) : mirrored;
+    }
+
+    // The second long of a two-long board (0 otherwise)
+    public long getRawColors() {
+        return colors;
+    }
+
+    // Key of this position with the spots and the player hashed (see Zobrist), for boards of any size
+    @Override
+    public long getZobristKey() {
+        return zobrist;
+    }
+
+    // The Zobrist key of the left-right mirror image of this position
+    public long getMirroredZobristKey() {
+        return mirroredZobrist;
+    }
+
+    // The position exactly, as the packed long and (two-long boards only) the colors, of this position
+    //   or of its mirror image. For checking that a key really stands for this position.
+    long getExactPosition( boolean isMirrored ) { return isMirrored ? mirrored       : position; }
+    long getExactColors(   boolean isMirrored ) { return isMirrored ? mirroredColors : colors;   }
+
+    // Whether a position of an nC x nR board needs two longs, so that its raw position is only a hash
+    static boolean isTwoLong( int nC, int nR ) {
+        return 3*nC + nR*nC + 1 > 64;
+    }
+
+    private static long twoLongKey( long packed, long colors ) {
+        return packed ^ (colors * 0x9E3779B97F4A7C15L); // Column sizes and player stay readable in the low bits
+    }
+
+    private int colorBit( int iC, int iR_ ) { // Bit holding the color of spot (iC,iR_), iR_ from the bottom up
+        return colorBase + iC*nR + iR_;
+    }
+
+    private void addChip( int iC, int iR_, int color ) { // One more chip on column iC, in position and in mirrored
+        int jC = nC-1-iC;
+        position += 1L << (3*iC);
+        mirrored += 1L << (3*jC);
+        zobrist         ^= Zobrist.spot(iC*height + iR_, color);
+        mirroredZobrist ^= Zobrist.spot(jC*height + iR_, color);
+        updateWindows(iC*height + iR_, color);
+        if ( color != 2 ) return;
+        if ( isTwoLong ) {
+            colors         |= 1L << colorBit(iC, iR_);
+            mirroredColors |= 1L << colorBit(jC, iR_);
+        } else {
+            position       |= 1L << colorBit(iC, iR_);
+            mirrored       |= 1L << colorBit(jC, iR_);
+        }
+    }
+
+    private void removeChip( int iC, int iR_ ) { // Inverse of addChip()
+        int jC = nC-1-iC;
+        position -= 1L << (3*iC);
+        mirrored -= 1L << (3*jC);
+        long colorBits = isTwoLong ? colors : position;
+        int  color     = (int)((colorBits >>> colorBit(iC, iR_)) & 1L) + 1;
+        zobrist         ^= Zobrist.spot(iC*height + iR_, color);
+        mirroredZobrist ^= Zobrist.spot(jC*height + iR_, color);
+        updateWindows(iC*height + iR_, color);
+        if ( isTwoLong ) {
+            colors         &= ~(1L << colorBit(iC, iR_));
+            mirroredColors &= ~(1L << colorBit(jC, iR_));
+        } else {
+            position       &= ~(1L << colorBit(iC, iR_));
+            mirrored       &= ~(1L << colorBit(jC, iR_));
+        }
+    }
+
+    private void updateWindows( int iCell, int color ) { // A chip of color added to or removed from iCell
+        for ( int code : cellWindows[iCell] ) {
+            int window  = code >>> 2;
+            int bit     = 1 << (code & 3);
+            int oddRows = windowOddRows[window];
+            threatScore -= WINDOW_SCORES[(windowRed[window] << 8) | (windowYellow[window] << 4) | oddRows];
+            if ( color == 2 ) windowYellow[window] ^= bit;
+            else              windowRed[   window] ^= bit;
+            threatScore += WINDOW_SCORES[(windowRed[window] << 8) | (windowYellow[window] << 4) | oddRows];
+        }
     }
 
     @Override
     public int getColor( InterfaceIterator iPos ) { // 0 if transparent, 1 if red, 2 if yellow
         int  iR_ = iPos.nR()-iPos.iR()-1; // This numbers the rows from the bottom up
-        return getColor( iPos.iC(), iR_, getColumnChipCount(iPos.iC()) );
+        long bit = cellBit( iPos.iC(), iR_ );
+        if ( (mask & bit) == 0 ) return 0;
+        return (current & bit) != 0 ? getPlayer() : 3-getPlayer();
     }
 
     public boolean spotReady(InterfaceIterator iPos) {
-        int  iR  = iPos.iR();
-        int  iR_ = iPos.nR()-iR-1; // This numbers the rows from the bottom up
-        if ( iR_ > getColumnChipCount(iPos) || iR_ < getColumnChipCount(iPos)) { 
-            return false;
-        }
-        return true;
+        int  iR_ = iPos.nR()-iPos.iR()-1; // This numbers the rows from the bottom up
+        return (possibleMoves() & cellBit(iPos.iC(), iR_)) != 0;
     }
-    private int getColor( int iC, int iR_, int nColumnChipCount ) { // 0 if transparent, 1 if red, 2 if yellow
-        // fill this in based on:
-        // Rightmost 21=3*7 bits are for storing column sizes. (3 bits accommodates 0..7)
-        // Next, going to the left 42=6*7*1 bits are binary for colors. (Either red or yellow) 
-        // Finally, the left most bit is for the player
-    	if (iR_ >= nColumnChipCount) {
-    		return 0;
-    	} else {
-	    	int posShift = 21 + (iC * nC) + (4-iR_);
-	        return (int) ((position >>> posShift) & 1L) + 1;
-    	}
+
+    // The bitboards themselves, for code that plays on copies of them (e.g., random playouts)
+    long getCurrentStones() { return current; }
+    long getAllStones()     { return mask; }
+
+    // The next free spot of every column that is not yet full, as one bitboard
+    public long possibleMoves() {
+        return (mask + bottomMask) & boardMask;
     }
 
+    public boolean canPlay( int iC ) {
+        return (possibleMoves() & (((1L << nR) - 1) << (iC*height))) != 0;
+    }
     @Override
     public void setColor( InterfaceIterator iPos, int color ) { // color is 1 if red, 2 if yellow
         int  iC  = iPos.iC();
@@ -86,155 +426,85 @@ public class Connect4Position implements InterfacePosition {
         } else if ( iR_ < getColumnChipCount(iPos)) { 
             System.err.println("Error: This position ("+iC+","+iR+") is already filled.");
         } else {
-            // Increment columnSize
-            // Set the color (default is color==1)
-        	
-            //TODO fill this in based on:
-            // Rightmost 21=3*7 bits are for storing column sizes. (3 bits accommodates 0..7)
-            // Next, going to the left 42=6*7*1 bits are binary for colors. (Either red or yellow) 
-            // Finally, the left most bit is for the player
-        	int count = getColumnChipCount(iPos);
-        	//zero column bits
-        	position &= ~(7 << (3*iC));
-        	//set new count for that column
-        	position |= ((count + 1) << (3*iC));
-        	//change color slot to correct color
-        	if (color == 2) {
-        		int posShift = 21 + (iC * nC) + (4-iR_);
-    	    	position |= (1L << posShift);
-        	}
+        	addChip(iC, iR_, color);
+        	long bit = cellBit(iC, iR_);
+        	mask |= bit;
+        	if (color == getPlayer()) current |= bit;
         }
     }
 
+    // Drops a disk of the player to move into column iC (which must have room) and passes the turn
+    public void playColumn( int iC ) {
+        int  player = getPlayer();
+        int  iR_    = getColumnChipCount(iC);
+        long bit    = cellBit(iC, iR_);
+        addChip(iC, iR_, player);
+        position ^= 1L << 63;
+        mirrored ^= 1L << 63;
+        zobrist         ^= Zobrist.PLAYER2;
+        mirroredZobrist ^= Zobrist.PLAYER2;
+        current |= bit;
+        mask    |= bit;
+        current ^= mask; // Now from the point of view of the other player
+        moveStack[nMoves++] = iC;
+    }
+
+    // Takes back the last playColumn(), which must have been on column iC
+    public void undoColumn( int iC ) {
+        if ( nMoves == 0 || moveStack[nMoves-1] != iC ) {
+            System.err.println("Error(Connect4Position::undoColumn): column "+iC+" was not the last one played!!!");
+            return;
+        }
+        nMoves--;
+        int  iR_ = getColumnChipCount(iC) - 1;
+        long bit = cellBit(iC, iR_);
+        current ^= mask; // Back to the point of view of the player who made the move
+        current &= ~bit;
+        mask    &= ~bit;
+        position ^= 1L << 63;
+        mirrored ^= 1L << 63;
+        zobrist         ^= Zobrist.PLAYER2;
+        mirroredZobrist ^= Zobrist.PLAYER2;
+        removeChip(iC, iR_);
+    }
+
     @Override
     public int isWinner() {
         //      if winner, determine that and return winner, 
         //      else if draw, return 0
         //      else if neither winner nor draw, return -1
+        if ( isAlignment(current       ) ) return   getPlayer();
+        if ( isAlignment(current ^ mask) ) return 3-getPlayer();
+        return (mask == boardMask) ? 0 : -1;
+    }
 
-        //TODO make this faster, store getColor() calls. Rework diagonal checks.
-        
-        // Hard coded assumption of 4 column, 4 row board.
-        
-        int[] columnChipCounts = new int[nC];
-        for (int iC=0; iC < nC; iC++) {
-            columnChipCounts[iC] = getColumnChipCount(iC);
-        }
-        
-        int[][] spotColors = new int[nC][nR];
-        for (int iC=0; iC < nC; iC++) {
-            for (int iR=0; iR < nR; iR++) {
-                spotColors[iC][iR] = getColor(iC, iR, columnChipCounts[iC]);
-            }
-        }
-
-		//referencing each 4X4 piece of the board
-        for (int j = 0; j < nR - 3; j++) {
-        	for (int i = 0; i < nC - 3; i++) {
-        		//if the bottom two corners are not empty
-        		if (spotColors[i+3][j] != 0 & spotColors[i][j] != 0) {
-        			//check the bottom horizontal
-        			if (spotColors[i][j] == spotColors[i+1][j] &&
-    	                    spotColors[i][j] == spotColors[i+2][j] &&
-    	                    spotColors[i][j] == spotColors[i+3][j]) {
-    	                    return spotColors[i][j];
-    	            }
-	        		//if the top left is not empty:
-	        		if (spotColors[i][j+3] != 0) {
-	        			//check vertical on left side
-	    				if (spotColors[i][j] == spotColors[i][j+1] &&
-	    	                    spotColors[i][j] == spotColors[i][j+2] &&
-	    	                    spotColors[i][j] == spotColors[i][j+3]) {
-	    	                    return spotColors[i][j];
-	    	            }
-	    				//check the diagonal from top left to bottom right
-	    				if (spotColors[i][j+3] == spotColors[i+1][j+2] &&
-	    	                    spotColors[i][j+3] == spotColors[i+2][j+1] &&
-	    	                    spotColors[i][j+3] == spotColors[i+3][j]) {
-	    	                    return spotColors[i][j+3];
-	    	            }
-	        			//if the top right is not empty
-	        			if (spotColors[i+3][j+3] != 0) {
-	        				//check top horizontal
-	        				if (spotColors[i][j+3] == spotColors[i+1][j+3] &&
-	        	                    spotColors[i][j+3] == spotColors[i+2][j+3] &&
-	        	                    spotColors[i][j+3] == spotColors[i+3][j+3]) {
-	        	                    return spotColors[i][j+3];
-	        	            }
-	        				//check the vertical on the right side
-	        				if (spotColors[i+3][j+3] == spotColors[i+3][j+2] &&
-	        	                    spotColors[i+3][j+3] == spotColors[i+3][j+1] &&
-	        	                    spotColors[i+3][j+3] == spotColors[i+3][j]) {
-	        	                    return spotColors[i+3][j+3];
-	        	            }
-	        				//check the diagonal from the bottom left to the top right
-	        				if (spotColors[i][j] == spotColors[i+1][j+1] &&
-	        	                    spotColors[i][j] == spotColors[i+2][j+2] &&
-	        	                    spotColors[i][j] == spotColors[i+3][j+3]) {
-	        	                    return spotColors[i][j];
-	        	            }
-	        			}
-	        		}
-        		}
-        		//The following code is needed only for when the board size is below 6x6
-        		//delete it if the board will not be smaller.
-        		if (spotColors[i+1][j+2] != 0) {
-        			//check second from top horizontal
-    				if (spotColors[i][j+2] == spotColors[i+1][j+2] &&
-    	                    spotColors[i][j+2] == spotColors[i+2][j+2] &&
-    	                    spotColors[i][j+2] == spotColors[i+3][j+2]) {
-    	                    return spotColors[i][j+2];
-    	            }
-    				//check second from the left vertical
-    				if (spotColors[i+1][j] == spotColors[i+1][j+1] &&
-    	                    spotColors[i+1][j] == spotColors[i+1][j+2] &&
-    	                    spotColors[i+1][j] == spotColors[i+1][j+3]) {
-    	                    return spotColors[i+1][j];
-    	            }
-        		}
-        		if (spotColors[i+2][j+1] != 0) {
-        			//check second from bottom horizontal
-    				if (spotColors[i][j+1] == spotColors[i+1][j+1] &&
-    	                    spotColors[i][j+1] == spotColors[i+2][j+1] &&
-    	                    spotColors[i][j+1] == spotColors[i+3][j+1]) {
-    	                    return spotColors[i][j+1];
-    	            }
-    				//check second from the right vertical
-    				if (spotColors[i+2][j] == spotColors[i+2][j+1] &&
-    	                    spotColors[i+2][j] == spotColors[i+2][j+2] &&
-    	                    spotColors[i+2][j] == spotColors[i+2][j+3]) {
-    	                    return spotColors[i+3][j];
-    	            }
-        		}
-        	}
-        }
-        
-        // If we got this far, nobody has won. Therefore if the whole board is filled,
-        // it is a draw.
-    	if ( (position & 2097151L) == 2340) {
-    		return 0;
-    	} else {
-    		return -1;
-    	}
-//        boolean allFilled = true;
-//        for (int iC=0; iC < nC; iC++) {
-//            if (columnChipCounts[iC] != 4) {
-//                allFilled = false;
-//                break;
-//            }
-//        }
-//        
-//        if (allFilled) {
-//            return 0;
-//        }
-//        else {
-//            return -1;
-//        }
+    private boolean isAlignment( long stones ) { // Is there any four in a row among stones?
+        // Each line direction is a fixed shift: 1 vertical, height horizontal,
+        //   height-1 and height+1 for the two diagonals.
+        long v  = stones & (stones >>> 1         );
+        long h  = stones & (stones >>> height    );
+        long d1 = stones & (stones >>> (height-1));
+        long d2 = stones & (stones >>> (height+1));
+        return ( (v  & (v  >>> 2           ))
+               | (h  & (h  >>> (2*height)  ))
+               | (d1 & (d1 >>> (2*height-2)))
+               | (d2 & (d2 >>> (2*height+2))) ) != 0;
     }
 
     @Override
     public void reset() {
         position = 0;
+        mirrored = 0;
+        colors         = 0;
+        mirroredColors = 0;
+        zobrist         = 0;
+        mirroredZobrist = 0;
+        nMoves   = 0;
+        current  = 0;
+        mask     = 0;
+        Arrays.fill(windowRed,    (byte)0);
+        Arrays.fill(windowYellow, (byte)0);
+        threatScore = 0;
     }
 
     @Override
@@ -245,6 +515,10 @@ public class Connect4Position implements InterfacePosition {
             int  currentPlayer = getPlayer();
             if ( currentPlayer != iPlayer ) {
                 position ^= 1L << 63;
+                mirrored ^= 1L << 63;
+                zobrist         ^= Zobrist.PLAYER2;
+                mirroredZobrist ^= Zobrist.PLAYER2;
+                current  ^= mask;
             }
         }
     }
@@ -256,28 +530,45 @@ public class Connect4Position implements InterfacePosition {
 
     @Override
     public int getChipCount() {
-        int chipCount = 0;
-        for ( int iC = 0; iC < nC(); iC++ ) chipCount += getColumnChipCount(iC);
-        return chipCount;
+        return Long.bitCount(mask);
     }
 
     @Override
     public int isWinner(InterfaceIterator iPos) {
-        // Not yet used (You may want to implement/use this for the group assignment)
-        System.out.println("uh oh");
-        return 0/0;
+        // Same return values as isWinner(), but only the lines through iPos are checked.
+        // This is enough right after a disk is dropped at iPos, if the game was not over before.
+        int  iR_ = iPos.nR()-iPos.iR()-1; // This numbers the rows from the bottom up
+        return isWinner(iPos.iC()*height + iR_);
+    }
+
+    // isWinner(iPos) for the top disk of column iC, i.e. right after playColumn(iC)
+    public int isWinnerInColumn( int iC ) {
+        return isWinner(iC*height + getColumnChipCount(iC) - 1);
+    }
+
+    private int isWinner( int iCell ) {
+        long bit   = iCell < 0 ? 0 : 1L << iCell;
+        if ( (mask & bit) == 0 ) return isWinner(); // Nothing was dropped here
+
+        boolean isCurrent = (current & bit) != 0;
+        long    stones    = isCurrent ? current : current ^ mask;
+        for ( long line : cellLines[iCell] ) {
+            if ( (stones & line) == line ) return isCurrent ? getPlayer() : 3-getPlayer();
+        }
+        return (mask == boardMask) ? 0 : -1;
     }
 
     @Override
     public float valuePosition() {
-        // Not yet used
-        return 0/0;
+        // Static estimate for the player to move, from the open twos and threes of both players.
+        // Strictly between -1 and 1, which are kept for games that are won or lost.
+        int score = getPlayer() == 1 ? threatScore : -threatScore;
+        return score / (Math.abs(score) + VALUE_SCALE);
     }
 
     @Override
-    public int getChipCount(InterfaceIterator iPos) {
-        // Not used yet
-        return 0/0;
+    public int getChipCount(InterfaceIterator iPos) { // Number of chips in the column of iPos
+        return getColumnChipCount(iPos);
     }
 
 }
@@ -0,0 +1,116 @@
+package connect4Minimax4x4;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4PositionRanking {
+    // Numbers the positions of one board size densely, 0..size()-1, and back.
+    // A position counts if red (moving first) has as many chips as yellow, or one more,
+    //   and it is the turn of whoever has fewer. (Whether someone has already won is not looked at.)
+    // Positions are ordered by their chip count first, so that each layer (chip count) is one range
+    //   of ranks, from getLayerStart(nChips) on.
+    // Within a layer, they are ordered by their column heights, read as a number in base nR+1
+    //   (column 0 the lowest digit), and then by which of the k chips are red:
+    //   numbering the filled spots 0..k-1 column by column, bottom up, the red spots c1<c2<...<cr
+    //   get the combinatorial number C(c1,1) + C(c2,2) + ... + C(cr,r), which runs densely over [0, C(k,r)).
+    // rank() allocates nothing, so that the search can use it.
+
+    private final int    nC;
+    private final int    nR;
+    private final long[] offsets;     // offsets[h] = rank of the first position with heights h
+    private final int[]  heights;     // Every h, in the order of their ranks ...
+    private final long[] starts;      // ... and offsets[] of those, ascending
+    private final long[] layerStarts; // layerStarts[nChips] = rank of the first position with nChips chips, then size()
+
+    private static final long[][] binomials = new long[65][65];
+    static {
+        for ( int n = 0; n < 65; n++ ) {
+            binomials[n][0] = 1;
+            for ( int k = 1; k <= n; k++ ) binomials[n][k] = binomials[n-1][k-1] + binomials[n-1][k];
+        }
+    }
+
+    Connect4PositionRanking( int nC, int nR ) {
+        this.nC = nC;
+        this.nR = nR;
+        int nHeights = 1;
+        for ( int iC = 0; iC < nC; iC++ ) nHeights *= nR+1;
+        int[] chips = new int[nHeights];
+        for ( int h = 0; h < nHeights; h++ ) {
+            for ( int rest = h; rest > 0; rest /= nR+1 ) chips[h] += rest % (nR+1);
+        }
+        offsets     = new long[nHeights];
+        heights     = new int[nHeights];
+        starts      = new long[nHeights];
+        layerStarts = new long[nC*nR+2];
+        long rank   = 0;
+        int  i      = 0;
+        for ( int nChips = 0; nChips <= nC*nR; nChips++ ) {
+            layerStarts[nChips] = rank;
+            for ( int h = 0; h < nHeights; h++ ) {
+                if ( chips[h] != nChips ) continue;
+                offsets[h]  = rank;
+                heights[i]  = h;
+                starts[i++] = rank;
+                rank = Math.addExact(rank, binomials[nChips][(nChips+1)/2]); // Throws if the board has too many positions
+            }
+        }
+        layerStarts[nC*nR+1] = rank;
+    }
+
+    long size()                        { return layerStarts[nC*nR+1]; }
+    long getLayerStart( int nChips )   { return layerStarts[nChips]; }
+    long getLayerSize(  int nChips )   { return layerStarts[nChips+1] - layerStarts[nChips]; }
+
+    // Rank of position, or -1 if it is not one of the positions counted
+    long rank( Connect4Position position ) {
+        long current = position.getCurrentStones();
+        long red     = position.getPlayer() == 1 ? current : current ^ position.getAllStones();
+        int  h       = 0;
+        for ( int iC = nC-1; iC >= 0; iC-- ) h = h*(nR+1) + position.getColumnHeight(iC);
+
+        long index = 0;
+        int  iSpot = 0;
+        int  nRed  = 0;
+        for ( int iC = 0; iC < nC; iC++ ) {
+            int height = position.getColumnHeight(iC);
+            for ( int iR_ = 0; iR_ < height; iR_++, iSpot++ ) {
+                if ( ((red >>> (iC*(nR+1) + iR_)) & 1L) != 0 ) index += binomials[iSpot][++nRed];
+            }
+        }
+        if ( nRed != (iSpot+1)/2 || position.getPlayer() != 1 + iSpot%2 ) return -1;
+        return offsets[h] + index;
+    }
+
+    Connect4Position unrank( long rank ) {
+        int low = 0, high = starts.length-1; // Last i with starts[i] <= rank
+        while ( low < high ) {
+            int mid = (low + high + 1) >>> 1;
+            if ( starts[mid] <= rank ) low  = mid;
+            else                       high = mid-1;
+        }
+        int  h      = heights[low];
+        long index  = rank - starts[low];
+        int  nChips = 0;
+        for ( int rest = h; rest > 0; rest /= nR+1 ) nChips += rest % (nR+1);
+
+        long isRed = 0; // Bit c set if filled spot c is red
+        for ( int nRed = (nChips+1)/2, c = nChips-1; nRed > 0; nRed-- ) { // Largest c with C(c,nRed) <= index, each time
+            while ( binomials[c][nRed] > index ) c--;
+            isRed |= 1L << c;
+            index -= binomials[c][nRed];
+            c--;
+        }
+
+        long red    = 0;
+        long yellow = 0;
+        int  iSpot  = 0;
+        for ( int iC = 0; iC < nC; iC++, h /= nR+1 ) {
+            for ( int iR_ = 0; iR_ < h % (nR+1); iR_++, iSpot++ ) {
+                long bit = 1L << (iC*(nR+1) + iR_);
+                if ( ((isRed >>> iSpot) & 1L) != 0 ) red    |= bit;
+                else                                 yellow |= bit;
+            }
+        }
+        return new Connect4Position(nC, nR, red, yellow, 1 + nChips%2);
+    }
+}
@@ -0,0 +1,57 @@
+package connect4Minimax4x4;
+
+import java.util.Arrays;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4SearchBuffers {
+    // Per ply scratch arrays, so that searching allocates nothing, and what the thread searching
+    //   with them has learnt and counted (see Connect4Strategy.newBuffers()).
+    // Only one thread may search with a set of buffers at a time.
+    final int                 nC;
+    final int                 nR;
+    final int[][]             moves     = new int[Connect4Strategy.MAX_PLY][];
+    final int[][]             keys      = new int[Connect4Strategy.MAX_PLY][];
+    final int[][]             columns   = new int[Connect4Strategy.MAX_PLY][];
+    final InterfaceIterator[] iterators = new InterfaceIterator[Connect4Strategy.MAX_PLY];
+    final int[]               bestMoves = new int[Connect4Strategy.MAX_PLY];
+
+    // Move ordering. Moves are iterator spot indices, nC*iR+iC.
+    //   killers: per ply, the last two moves that caused a beta cutoff there
+    //   history: per player and spot, how much cutoffs that move has caused anywhere (depth^2 each)
+    final int[][] killers = new int[Connect4Strategy.MAX_PLY][2];
+    final int[][] history = new int[2][64];
+
+    // Statistics of the current getBestMove() call
+    long nodeCount            = 0;
+    long probeCount           = 0;
+    long hitCount             = 0;
+    long storeCount           = 0;
+    long cutoffCount          = 0; // Beta cutoffs
+    long firstMoveCutoffCount = 0; // ... that happened on the first move tried
+    int  maxPlyReached        = 0;
+
+    Connect4SearchBuffers( int nC, int nR ) {
+        this.nC = nC;
+        this.nR = nR;
+        reset();
+        for ( int ply = 0; ply < Connect4Strategy.MAX_PLY; ply++ ) {
+            moves[ply]     = new int[nC];
+            keys[ply]      = new int[nC];
+            columns[ply]   = new int[nC];
+            iterators[ply] = new Connect4Iterator(nC, nR);
+        }
+    }
+
+    void reset() { // For a new getBestMove() call
+        for ( int[] killer : killers ) Arrays.fill(killer, -1);
+        for ( int[] counts : history ) Arrays.fill(counts,  0);
+        nodeCount            = 0;
+        probeCount           = 0;
+        hitCount             = 0;
+        storeCount           = 0;
+        cutoffCount          = 0;
+        firstMoveCutoffCount = 0;
+        maxPlyReached        = 0;
+    }
+}
@@ -0,0 +1,186 @@
+package connect4Minimax4x4;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4SearchInfo implements InterfaceSearchInfo {
+
+    InterfaceIterator bestMoveSoFar  = null;
+    InterfaceIterator moveStorage    = null; // What bestMoveSoFar points to when there is a move
+    float             bestScoreSoFar = Float.NEGATIVE_INFINITY;
+    float             opponentBestScoreOnPreviousMoveSoFar = Float.NEGATIVE_INFINITY; // -beta
+    float             myBestScoreOnEarlierMoveSoFar        = Float.NEGATIVE_INFINITY; //  alpha
+    Connect4AbortFlag abortFlag      = null; // Set when the result of this search may stop being wanted
+    Connect4SearchBuffers buffers    = null; // Scratch space of the thread doing this search
+    int               minDepthSearchForThisPos = 0;
+    int               maxDepthSearchForThisPos = Integer.MAX_VALUE; // Moves to look ahead from this position
+    int               maxSearchTimeForThisPos  = 0; // Milliseconds, 0 -> no time limit
+    volatile long     stopTime                 = Long.MAX_VALUE; // System.nanoTime() by which to stop, may be set during the search
+    long              maxNodesForThisPos       = 0; // 0 -> no node limit
+    int               hashMove                 = -1; // Spot to try first (nC*iR+iC), -1 if none
+    int               ply                      = 0;  // Moves made since the root of the search
+    // Statistics of the search, filled in at the root, also while the search is still running (from its thread)
+    volatile long     nodesSearched            = 0;
+    volatile long     searchNanos              = 0;
+    volatile long     tableProbes              = 0;
+    volatile long     tableHits                = 0;
+    volatile long     tableStores              = 0;
+    volatile long     cutoffs                  = 0;
+    volatile long     firstMoveCutoffs         = 0;
+    volatile int      maxDepthReached          = 0;
+    volatile long     bytesAllocated           = 0;
+
+    @Override
+    public InterfaceIterator getBestMoveSoFar() {
+        return bestMoveSoFar;
+    }
+
+    @Override
+    public float getBestScoreSoFar() {
+        return bestScoreSoFar;
+    }
+
+    @Override
+    public void setBestMoveSoFar(InterfaceIterator newMove, float newScore) {
+        if ( moveStorage == null ) moveStorage = new Connect4Iterator(newMove); // Reused from then on
+        else                       moveStorage.set(newMove);
+        bestMoveSoFar  = moveStorage;
+        bestScoreSoFar = newScore;
+    }
+
+    // Score of a position that is not searched any further (no move goes with it)
+    void setLeafScore(float score) {
+        bestMoveSoFar  = null;
+        bestScoreSoFar = score;
+    }
+
+    // No result yet, as in a new context (for a context that is reused)
+    void clearResult() {
+        setLeafScore(Float.NEGATIVE_INFINITY);
+    }
+
+    @Override
+    public int getMinDepthSearchForThisPos() {
+        return minDepthSearchForThisPos;
+    }
+
+    @Override
+    public void setMinDepthSearchForThisPos(int minDepth) {
+        minDepthSearchForThisPos = minDepth;
+    }
+
+    @Override
+    public int getMaxDepthSearchForThisPos() {
+        return maxDepthSearchForThisPos;
+    }
+
+    @Override
+    public void setMaxDepthSearchForThisPos(int maxDepth) {
+        maxDepthSearchForThisPos = maxDepth;
+    }
+
+    @Override
+    public int getMaxSearchTimeForThisPos() {
+        return maxSearchTimeForThisPos;
+    }
+
+    @Override
+    public void setMaxSearchTimeForThisPos(int maxTime) {
+        maxSearchTimeForThisPos = maxTime;
+    }
+
+    // A time limit that also applies to a search that is already running (e.g., a ponder search that is hit)
+    long getStopTime() { return stopTime; }
+    void setStopTime( long stopTime ) { this.stopTime = stopTime; }
+
+    public long getMaxNodesForThisPos() {
+        return maxNodesForThisPos;
+    }
+
+    public void setMaxNodesForThisPos(long maxNodes) {
+        maxNodesForThisPos = maxNodes;
+    }
+
+    int  getHashMove() { return hashMove; }
+    void setHashMove( int move ) { hashMove = move; }
+    int  getPly() { return ply; }
+    void setPly( int ply ) { this.ply = ply; }
+
+    void setSearchStatistics( long nodesSearched, long searchNanos, long tableProbes, long tableHits, long tableStores,
+                              long cutoffs, long firstMoveCutoffs, int maxDepthReached, long bytesAllocated ) {
+        this.nodesSearched    = nodesSearched;
+        this.searchNanos      = searchNanos;
+        this.tableProbes      = tableProbes;
+        this.tableHits        = tableHits;
+        this.tableStores      = tableStores;
+        this.cutoffs          = cutoffs;
+        this.firstMoveCutoffs = firstMoveCutoffs;
+        this.maxDepthReached  = maxDepthReached;
+        this.bytesAllocated   = bytesAllocated;
+    }
+
+    @Override public long  getNodesSearched()    { return nodesSearched; }
+    @Override public long  getTableProbes()      { return tableProbes; }
+    @Override public long  getTableHits()        { return tableHits; }
+    @Override public long  getTableStores()      { return tableStores; }
+    @Override public long  getCutoffs()          { return cutoffs; }
+    @Override public int   getMaxDepthReached()  { return maxDepthReached; }
+    @Override public long  getBytesAllocated()   { return bytesAllocated; }
+
+    @Override
+    public long getNodesPerSecond() {
+        long nanos = searchNanos;
+        return nanos == 0 ? 0 : (long)(nodesSearched * 1000000000.0 / nanos);
+    }
+
+    @Override
+    public float getFirstMoveCutoffRate() {
+        long nCutoffs = cutoffs;
+        return nCutoffs == 0 ? 0 : (float)firstMoveCutoffs / nCutoffs;
+    }
+
+    String getSearchStatistics() {
+        return nodesSearched + " nodes (" + getNodesPerSecond() + " per second), "
+             + "table " + tableProbes + " probes, " + tableHits + " hits, " + tableStores + " stores, "
+             + cutoffs + " beta cutoffs, " + Math.round(100*getFirstMoveCutoffRate()) + "% of them on the first move, "
+             + "depth " + maxDepthReached + ", " + (bytesAllocated < 0 ? "?" : bytesAllocated) + " bytes allocated";
+    }
+
+    @Override
+    public float getOpponentBestScoreOnPreviousMoveSoFar() {
+        return opponentBestScoreOnPreviousMoveSoFar;
+    }
+
+    @Override
+    public void setOpponentBestScoreOnPreviousMoveSoFar(float scoreToBeat) {
+        opponentBestScoreOnPreviousMoveSoFar = scoreToBeat;
+    }
+
+    // Counterpart of the above for alpha-beta pruning: 
+    //   the best score this side is already guaranteed earlier in the search
+    public float getMyBestScoreOnEarlierMoveSoFar() {
+        return myBestScoreOnEarlierMoveSoFar;
+    }
+
+    public void setMyBestScoreOnEarlierMoveSoFar(float scoreToBeat) {
+        myBestScoreOnEarlierMoveSoFar = scoreToBeat;
+    }
+
+    Connect4SearchBuffers getBuffers() { return buffers; }
+    void setBuffers( Connect4SearchBuffers buffers ) { this.buffers = buffers; }
+
+    Connect4AbortFlag getAbortFlag() { return abortFlag; }
+    void setAbortFlag( Connect4AbortFlag abortFlag ) { this.abortFlag = abortFlag; }
+    boolean isAborted() { return abortFlag != null && abortFlag.isAborted(); }
+
+    @Override
+    public int getClassStateCompacted() {
+        // Not used in this strategy
+        return 0/0;
+    }
+
+    @Override
+    public void setClassStateFromCompacted(int compacted) {
+        // Not used in this strategy
+    }
+
+}
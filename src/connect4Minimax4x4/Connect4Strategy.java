@@ -1,161 +1,558 @@
 package connect4Minimax4x4;
 
-import java.util.HashMap;
-import java.util.Map;
-
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 //author: Gary Kalmanovich; rights reserved
 
 public class Connect4Strategy implements InterfaceStrategy {
 
-	private Map<Long,Connect4SearchInfo> saved = new HashMap<>(); 
+    static final int DEFAULT_TABLE_MB = 16;
+
+	private final Connect4TranspositionTable saved; 
+    private int moveOrderOffset; // Columns the order moves are tried in is rotated by (Lazy SMP helpers differ here)
+    private Connect4ParallelSearch parallelSearch = null; // null -> single threaded search
+    private Connect4LazySmpSearch  lazySmpSearch  = null; // null -> no helper threads
+    private Connect4Tablebase      tablebase      = null; // Of the board being searched, null if there is none
+    private Connect4PersistentCache persistentCache = null; // null -> proven results are not kept on disk
+
+    // Limits of the current getBestMove() call. When one is hit, limitFlag aborts the iteration in progress.
+    private long              maxNodes   = 0; // 0 -> no node limit
+    private long              deadline   = Long.MAX_VALUE; // System.nanoTime() by which to stop
+    private Connect4AbortFlag limitFlag  = null;
+
+    // Statistics of the current getBestMove() call, published to its context every
+    //   STATISTICS_INTERVAL_MS while the search runs, so that they can be watched live
+    static final int STATISTICS_INTERVAL_MS = 100;
+    private Connect4SearchInfo runningContext = null; // Root context of the running search, null if none
+    private long               startTime         = 0;
+    private long               nextPublishTime   = 0;
+    private long               searchThreadId    = 0;
+    private long               startAllocated    = 0;
+
+    // Every thread searching for this strategy has buffers of its own (see Connect4SearchBuffers), with
+    //   its own move ordering hints and counters, so threads never write to the same ones.
+    // The statistics and the node limit go by the sum over all of them.
+    static final int MAX_PLY     = 64;
+    static final int MAX_HISTORY = 1 << 20;
+    private final List<Connect4SearchBuffers> searchBuffers = new CopyOnWriteArrayList<>();
+    private Connect4SearchBuffers             mainBuffers   = null; // Of the thread calling getBestMove()
+
+    Connect4Strategy() { this(DEFAULT_TABLE_MB); }
+    Connect4Strategy( int tableSizeMB ) { this(new Connect4TranspositionTable(tableSizeMB), 0); }
+    Connect4Strategy( Connect4TranspositionTable saved, int moveOrderOffset ) { 
+        this.saved           = saved; 
+        this.moveOrderOffset = moveOrderOffset;
+    }
+
+    Connect4TranspositionTable getTable() { return saved; }
+
+    // Only between searches
+    void setMoveOrderOffset( int moveOrderOffset )   { this.moveOrderOffset = moveOrderOffset; }
+    void setTablebase( Connect4Tablebase tablebase ) { this.tablebase       = tablebase;       } // For search() alone
+
+    Connect4Tablebase getTablebase() { return tablebase; } // Of the last getBestMove()
+
+    // Proven results (game values found to the end of the game) go to, and are answered from, cache.
+    void setPersistentCache( Connect4PersistentCache cache ) { persistentCache = cache; }
+
+    // For a strategy that is not used any more: lets go of its threads and its persistent cache
+    void shutdown() {
+        setParallelism(1, 0);
+        setHelperThreads(0);
+        if ( persistentCache != null ) persistentCache.release();
+    }
+
+    boolean isParallel()       { return parallelSearch != null; }
+    boolean hasHelperThreads() { return lazySmpSearch  != null; }
+
+    // Buffers for one more thread searching for this strategy, counted in its statistics until dropped
+    Connect4SearchBuffers newBuffers( int nC, int nR ) {
+        Connect4SearchBuffers buffers = new Connect4SearchBuffers(nC, nR);
+        searchBuffers.add(buffers);
+        return buffers;
+    }
+
+    void dropBuffers( Connect4SearchBuffers buffers ) {
+        searchBuffers.remove(buffers);
+    }
+
+    // Search on nThreads cores, splitting the work at nodes less than splitDepth moves below the root.
+    // nThreads <= 1 goes back to the single threaded search.
+    void setParallelism( int nThreads, int splitDepth ) {
+        if ( parallelSearch != null ) parallelSearch.shutdown();
+        parallelSearch = nThreads > 1 ? new Connect4ParallelSearch(this, nThreads, splitDepth) : null;
+    }
+
+    // Lazy SMP: nHelpers extra threads search the same root position in a different move order,
+    //   sharing only the transposition table. 0 turns it off.
+    void setHelperThreads( int nHelpers ) {
+        if ( lazySmpSearch != null ) lazySmpSearch.shutdown();
+        lazySmpSearch = nHelpers > 0 ? new Connect4LazySmpSearch(this, nHelpers) : null;
+    }
 			
 	@Override
     public void getBestMove(InterfacePosition position,
             InterfaceSearchInfo context) {
         // Note, return information is embedded in context
+        // Iterative deepening: search 1, 2, 3, ... moves ahead until the end of the game,
+        //   or until the depth, time or node limit in context is reached.
+        // Every completed iteration puts its best move into context right away, and the
+        //   next iteration tries that move first. An iteration cut short by a limit is thrown away.
+        Connect4Position   rootPosition = (Connect4Position)  position;
+        Connect4SearchInfo rootContext  = (Connect4SearchInfo)context;
+        if ( mainBuffers == null || mainBuffers.nC != rootPosition.nC() || mainBuffers.nR != rootPosition.nR() ) {
+            if ( mainBuffers != null ) dropBuffers(mainBuffers);
+            mainBuffers = newBuffers(rootPosition.nC(), rootPosition.nR());
+        }
+        for ( Connect4SearchBuffers buffers : searchBuffers ) buffers.reset(); // Every thread is idle now
+        startTime            = System.nanoTime();
+        nextPublishTime      = startTime + 1000000L*STATISTICS_INTERVAL_MS;
+        searchThreadId       = Thread.currentThread().getId();
+        startAllocated       = threadAllocatedBytes(searchThreadId);
+        int[] columns  = new int[rootPosition.nC()];
+        if ( rootPosition.isWinner() != -1 || rootPosition.getPlayableColumns(columns) == 0 ) { // Game over, no move
+            publishStatistics(rootContext);
+            return;
+        }
+        if ( lookupPerfectMove(rootPosition, rootContext) || lookupPersistentCache(rootPosition, rootContext) ) {
+            publishStatistics(rootContext);
+            return;
+        }
+        // Looked up once per move here, rather than in search(), which the parallel searches call from every thread
+        tablebase = Connect4Tablebase.getDefault(rootPosition.nC(), rootPosition.nR());
+        int movesLeft = movesLeft(rootPosition);
+        int maxDepth  = Math.min(movesLeft, rootContext.getMaxDepthSearchForThisPos());
+        int minDepth  = Math.min(maxDepth,  Math.max(1, rootContext.getMinDepthSearchForThisPos()));
 
-        int player   = position.getPlayer();
-        int opponent = 3-player; // There are two players, 1 and 2.
-        
-        for (InterfaceIterator iPos = new Connect4Iterator(4,4); 
-                iPos.isInBounds(); iPos.increment() ) {
-            Connect4Position posNew = new Connect4Position(position);
-            if (posNew.spotReady(iPos)) { // This is a free spot
-                posNew.setColor(iPos, player);
-                
-                posNew.setPlayer(opponent);
-                Connect4SearchInfo opponentContext = (Connect4SearchInfo) saved.get(posNew.getRawPosition());
-                if (opponentContext != null) { //maybeContext1 != null || maybeContext2 != null
-                	if ( -opponentContext.getBestScoreSoFar() > context.getBestScoreSoFar()) {
-                	    context.setBestMoveSoFar(iPos, -opponentContext.getBestScoreSoFar());
-                		if (-opponentContext.getBestScoreSoFar() == 1) {
-                		    break;
-                		}
-                	}
-                } else {
-                	int isWin = posNew.isWinner();
-	                
-	                float score = 0;
-	                
-	                if (isWin ==  -1) {
-	                    posNew.setPlayer(opponent);
-	                    InterfaceSearchInfo nextContext = new Connect4SearchInfo();
-	                    getBestMove(posNew,nextContext);
-	                    score = -1 * nextContext.getBestScoreSoFar();
-	                }
-	                else if (isWin > 0) {
-	                    if (isWin == player) {
-	                        score = 1;
-	                    }
-	                    else { // isWin == opponent
-	                        score = -1;
-	                    }
-	                }
-	                else { // isWin == 0
-	                    score = 0;
-	                }
-	
-	                if (score == 1) {
-	                    context.setBestMoveSoFar(iPos, score );
-	                    break; // end our for loop
-	                }
-	            
-	                if ( score > context.getBestScoreSoFar() ) {
-	                    context.setBestMoveSoFar(iPos, score );
-	                }
-                }
-	        }
+        runningContext = rootContext;
+        maxNodes  = rootContext.getMaxNodesForThisPos();
+        deadline  = rootContext.getMaxSearchTimeForThisPos() > 0 
+                  ? System.nanoTime() + 1000000L*rootContext.getMaxSearchTimeForThisPos() : Long.MAX_VALUE;
+
+        // A legal move to fall back on, in case a limit stops even the first iteration
+        InterfaceIterator fallbackMove = new Connect4Iterator(rootPosition.nC(), rootPosition.nR());
+        fallbackMove.set(columns[0], rootPosition.nR()-1-rootPosition.getColumnHeight(columns[0]));
+        context.setBestMoveSoFar(fallbackMove, 0);
+
+        Connect4SearchBuffers buffers = mainBuffers;
+        InterfaceIterator previousBestMove = null;
+        for ( int depth = minDepth; depth <= maxDepth; depth++ ) {
+            Connect4AbortFlag  iterationFlag    = new Connect4AbortFlag(rootContext.getAbortFlag());
+            limitFlag = iterationFlag;
+            checkLimits();
+            if ( iterationFlag.isAborted() ) break;
+            Connect4SearchInfo iterationContext = new Connect4SearchInfo();
+            iterationContext.setMaxDepthSearchForThisPos(depth);
+            iterationContext.setAbortFlag(iterationFlag);
+            iterationContext.setBuffers(buffers);
+            if ( previousBestMove != null ) {
+                iterationContext.setHashMove(previousBestMove.nC()*previousBestMove.iR() + previousBestMove.iC());
+            }
+
+            if ( parallelSearch != null ) {
+                parallelSearch.search(rootPosition, iterationContext);
+            } else if ( lazySmpSearch != null ) {
+                lazySmpSearch.search(rootPosition, iterationContext);
+            } else {
+                search(rootPosition, iterationContext);
+            }
+
+            if ( iterationContext.isAborted() || iterationContext.getBestMoveSoFar() == null ) break;
+            previousBestMove = iterationContext.getBestMoveSoFar();
+            context.setBestMoveSoFar(previousBestMove, iterationContext.getBestScoreSoFar());
+            if ( Math.abs(iterationContext.getBestScoreSoFar()) == 1 ) break; // Game is decided, deeper changes nothing
         }
-        saved.put(position.getRawPosition(), (Connect4SearchInfo) context);
+        limitFlag      = null;
+        runningContext = null;
+        publishStatistics(rootContext);
+        if ( persistentCache != null ) persistentCache.flush(); // Written in the background
     }
 
-    @Override
-    public void setContext(InterfaceSearchInfo strategyContext) {
-        // Not used in this strategy
+    // Looks the position up in the precomputed perfect play table of its board size, if there is one.
+    // Returns true (with the move in context) if it was found, so that no search is needed.
+    private boolean lookupPerfectMove( Connect4Position position, Connect4SearchInfo context ) {
+        Connect4PerfectTable perfectTable = Connect4PerfectTable.getDefault(position.nC(), position.nR());
+        int entry = perfectTable == null ? Connect4PerfectTable.MISS : perfectTable.lookup(position);
+        if ( entry == Connect4PerfectTable.MISS ) return false;
+        int iC = Connect4PerfectTable.columnOf(entry);
+        InterfaceIterator iPos = new Connect4Iterator(position.nC(), position.nR());
+        iPos.set(iC, position.nR()-1-position.getColumnHeight(iC));
+        context.setBestMoveSoFar(iPos, Connect4PerfectTable.valueOf(entry));
+        return true;
     }
 
-    @Override
-    public InterfaceSearchInfo getContext() {
-        // Not used in this strategy
-        return null;
+    // Same as lookupPerfectMove(), for a position a previous search (maybe in an earlier run) has proven
+    private boolean lookupPersistentCache( Connect4Position position, Connect4SearchInfo context ) {
+        if ( persistentCache == null ) return false;
+        long data = persistentCache.lookup(position);
+        if ( data == Connect4PersistentCache.MISS ) return false;
+        int  move = Connect4TranspositionTable.moveOf(data);
+        InterfaceIterator iPos = new Connect4Iterator(position.nC(), position.nR());
+        iPos.set(move % position.nC(), move / position.nC());
+        context.setBestMoveSoFar(iPos, Connect4TranspositionTable.scoreOf(data));
+        return true;
     }
-}
 
-class Connect4SearchInfo implements InterfaceSearchInfo {
+    // Called by every searching thread, every 1024 nodes it searches
+    private synchronized void checkLimits() {
+        long               now     = System.nanoTime();
+        Connect4SearchInfo context = runningContext;
+        if ( now >= nextPublishTime ) {
+            nextPublishTime = now + 1000000L*STATISTICS_INTERVAL_MS;
+            if ( context != null ) publishStatistics(context);
+        }
+        if ( context != null && context.getStopTime() < deadline ) deadline = context.getStopTime(); // Set from outside
+        if ( limitFlag != null && (now > deadline || (maxNodes > 0 && sumNodeCounts() > maxNodes)) ) {
+            limitFlag.abort();
+        }
+    }
 
-    InterfaceIterator bestMoveSoFar  = null;
-    float             bestScoreSoFar = Float.NEGATIVE_INFINITY;
+    // Counts of other threads may be a little behind while they are still searching
+    private void publishStatistics( Connect4SearchInfo context ) {
+        long nodeCount = 0, probeCount = 0, hitCount = 0, storeCount = 0, cutoffCount = 0, firstMoveCutoffCount = 0;
+        int  maxPlyReached = 0;
+        for ( Connect4SearchBuffers buffers : searchBuffers ) {
+            nodeCount            += buffers.nodeCount;
+            probeCount           += buffers.probeCount;
+            hitCount             += buffers.hitCount;
+            storeCount           += buffers.storeCount;
+            cutoffCount          += buffers.cutoffCount;
+            firstMoveCutoffCount += buffers.firstMoveCutoffCount;
+            maxPlyReached         = Math.max(maxPlyReached, buffers.maxPlyReached);
+        }
+        long allocated = threadAllocatedBytes(searchThreadId);
+        context.setSearchStatistics(nodeCount, System.nanoTime() - startTime, probeCount, hitCount, storeCount,
+                                    cutoffCount, firstMoveCutoffCount, maxPlyReached,
+                                    allocated < 0 || startAllocated < 0 ? -1 : allocated - startAllocated);
+    }
 
-    @Override
-    public InterfaceIterator getBestMoveSoFar() {
-        return bestMoveSoFar;
+    private long sumNodeCounts() {
+        long nodeCount = 0;
+        for ( Connect4SearchBuffers buffers : searchBuffers ) nodeCount += buffers.nodeCount;
+        return nodeCount;
     }
 
-    @Override
-    public float getBestScoreSoFar() {
-        return bestScoreSoFar;
+    // Bytes allocated so far by the thread with id threadId, -1 if the JVM cannot tell
+    static long threadAllocatedBytes( long threadId ) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if ( !(bean instanceof com.sun.management.ThreadMXBean) ) return -1;
+        return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(threadId);
     }
 
-    @Override
-    public void setBestMoveSoFar(InterfaceIterator newMove, float newScore) {
-        bestMoveSoFar  = new Connect4Iterator(newMove);
-        bestScoreSoFar = newScore;
+    // Common start of every node. Counts the node, enforces the limits and stops at the search horizon.
+    // Returns false if this node is not to be searched any further.
+    boolean enterNode( Connect4Position position, Connect4SearchInfo context ) {
+        Connect4SearchBuffers buffers = context.getBuffers();
+        if ( (++buffers.nodeCount & 1023) == 0 ) checkLimits();
+        if ( context.getPly() > buffers.maxPlyReached ) buffers.maxPlyReached = context.getPly();
+        if ( context.isAborted() ) return false; // Result is not wanted any more
+        if ( context.getMaxDepthSearchForThisPos() <= 0 ) {
+            context.setLeafScore(evaluate(position));
+            return false;
+        }
+        return true;
     }
 
-    @Override
-    public int getMinDepthSearchForThisPos() {
-        // Not used in this strategy
-        return 0;
+    static float evaluate( Connect4Position position ) {
+        // A position at the search horizon is valued by its threats (see Connect4Position.valuePosition()).
+        // That is strictly between -1 and 1, so scores of 1 and -1 still only come from finished games.
+        return position.valuePosition();
     }
 
-    @Override
-    public void setMinDepthSearchForThisPos(int minDepth) {
-        // Not used in this strategy
+    static int movesLeft( Connect4Position position ) {
+        return position.nC()*position.nR() - position.getChipCount();
     }
 
-    @Override
-    public int getMaxDepthSearchForThisPos() {
-        // Not used in this strategy
-        return 0;
+    void search(Connect4Position position, Connect4SearchInfo context) {
+        // Searches position with the window, depth and buffers in context and puts the result in context.
+        // position is changed during the search, but is back as it was when this returns.
+        Connect4SearchBuffers buffers = context.getBuffers();
+        int   ply   = context.getPly();
+        float score = negamax(position, context.getMaxDepthSearchForThisPos(), getAlpha(context), getBeta(context),
+                              ply, context.getHashMove(), buffers, context.getAbortFlag());
+        if ( context.isAborted() ) return;
+        int move = buffers.bestMoves[ply];
+        if ( move < 0 ) {
+            context.setLeafScore(score);
+        } else {
+            InterfaceIterator iPos = buffers.iterators[ply];
+            iPos.set(move % iPos.nC(), move / iPos.nC());
+            context.setBestMoveSoFar(iPos, score);
+        }
     }
 
-    @Override
-    public void setMaxDepthSearchForThisPos(int minDepth) {
-        // Not used in this strategy
+    // This is a negamax alpha-beta search, returning the score for the player to move.
+    //   alpha = best score this side is already guaranteed higher up in the tree
+    //   beta  = -(best score the opponent is already guaranteed on the previous move)
+    // If nothing beats alpha the returned score is only an upper bound,
+    //   and if beta is reached the remaining moves are skipped (a lower bound).
+    // The best move found goes into buffers.bestMoves[ply] (-1 if none).
+    // Moves are made and taken back on position itself, and all scratch space comes from buffers,
+    //   so nothing at all is allocated per node.
+    // A score returned after abortFlag has been set means nothing.
+    float negamax( Connect4Position position, int depth, float alpha, float beta, 
+                   int ply, int hashMove, Connect4SearchBuffers buffers, Connect4AbortFlag abortFlag ) {
+        buffers.bestMoves[ply] = -1;
+        if ( (++buffers.nodeCount & 1023) == 0 ) checkLimits();
+        if ( ply > buffers.maxPlyReached ) buffers.maxPlyReached = ply;
+        if ( abortFlag != null && abortFlag.isAborted() ) return 0; // Result is not wanted any more
+        if ( tablebase != null && position.getChipCount() >= tablebase.getMinChips() ) {
+            if ( ply == 0 ) { // The move is wanted too
+                int entry = tablebase.lookup(position); // Exact, so no need to look any further
+                if ( entry != Connect4PerfectTable.MISS ) {
+                    int iC = Connect4PerfectTable.columnOf(entry);
+                    buffers.bestMoves[ply] = position.nC()*(position.nR()-1-position.getColumnHeight(iC)) + iC;
+                    return Connect4PerfectTable.valueOf(entry);
+                }
+            } else {
+                int code = tablebase.lookupCode(position); // The value alone is one lookup
+                if ( code != Connect4ValueArray.UNKNOWN ) return Connect4ValueArray.valueOf(code);
+            }
+        }
+        if ( depth <= 0 ) return evaluate(position);
+
+        int   nC         = position.nC();
+        int   player     = position.getPlayer();
+        int   tableDepth = Math.min(depth, movesLeft(position));
+        float alphaOrig  = alpha;
+
+        long    key         = position.getZobristKey();
+        long    mirroredKey = position.getMirroredZobristKey();
+        boolean isMirrored  = mirroredKey < key;
+        long    data        = saved.probe(isMirrored ? mirroredKey : key, 
+                                          position.getExactPosition(isMirrored), position.getExactColors(isMirrored));
+        buffers.probeCount++;
+        if ( data != Connect4TranspositionTable.MISS ) {
+            buffers.hitCount++;
+            hashMove = Connect4TranspositionTable.moveOf(data); // Worth trying first, even if too shallow to settle anything
+            if ( isMirrored ) hashMove = mirrorMove(hashMove, nC);
+            if ( Connect4TranspositionTable.depthOf(data) >= tableDepth ) {
+                float savedScore = Connect4TranspositionTable.scoreOf(data);
+                int   bound      = Connect4TranspositionTable.boundOf(data);
+                if (    bound == Connect4TranspositionTable.EXACT 
+                    || (bound == Connect4TranspositionTable.LOWER && savedScore >= beta )
+                    || (bound == Connect4TranspositionTable.UPPER && savedScore <= alpha) ) {
+                    buffers.bestMoves[ply] = hashMove;
+                    return savedScore;
+                }
+            }
+        }
+
+        int[] moves     = buffers.moves[ply];
+        int   nMoves    = generateOrderedMoves(position, ply, hashMove, buffers, moves, buffers.keys[ply], buffers.columns[ply]);
+        float bestScore = Float.NEGATIVE_INFINITY;
+        int   bestMove  = -1;
+        for ( int iMove = 0; iMove < nMoves; iMove++ ) {
+            int iC = moves[iMove] % nC;
+            position.playColumn(iC);
+            int isWin = position.isWinnerInColumn(iC);
+
+            float score;
+            if ( isWin == -1 ) {
+                score = -negamax(position, depth-1, -beta, -alpha, ply+1, -1, buffers, abortFlag);
+            } else {
+                score = scoreOfResult(isWin, player);
+            }
+            position.undoColumn(iC);
+
+            if ( score > bestScore ) {
+                bestScore = score;
+                bestMove  = moves[iMove];
+            }
+            if ( score > alpha ) {
+                alpha = score;
+            }
+            if ( score == 1 || alpha >= beta ) {
+                recordCutoff(buffers, ply, depth, player, moves[iMove], iMove == 0);
+                break; // Cannot do better, or the opponent will not allow this line
+            }
+        }
+        buffers.bestMoves[ply] = bestMove;
+
+        if ( bestMove >= 0 && (abortFlag == null || !abortFlag.isAborted()) ) {
+            int bound = bestScore <= alphaOrig ? Connect4TranspositionTable.UPPER
+                      : bestScore >= beta      ? Connect4TranspositionTable.LOWER
+                      :                          Connect4TranspositionTable.EXACT;
+            saved.store(isMirrored ? mirroredKey : key, 
+                        position.getExactPosition(isMirrored), position.getExactColors(isMirrored), bestScore, bound, 
+                        isMirrored ? mirrorMove(bestMove, nC) : bestMove, tableDepth);
+            buffers.storeCount++;
+            // Proven: a won or lost game, or an exact score that looked all the way to the end
+            if ( persistentCache != null 
+                 && (Math.abs(bestScore) == 1 || (bound == Connect4TranspositionTable.EXACT && depth >= movesLeft(position))) ) {
+                persistentCache.add(position, Connect4TranspositionTable.pack(bestScore, Connect4TranspositionTable.EXACT, 
+                                                                              bestMove, tableDepth));
+            }
+        }
+        return bestScore;
     }
 
-    @Override
-    public int getMaxSearchTimeForThisPos() {
-        // Not used in this strategy
-        return 0;
+    // Fills moves with the spots a disk can be dropped into, best looking first:
+    //   1. the hash move (best move the table or the previous iteration knows for this position)
+    //   2. the killer moves of this ply
+    //   3. by history, and among equals, columns closest to the center
+    // On a symmetric position moves on the right half are left out, being the same as their mirrors.
+    // keys and columns are scratch space of the same length as moves. killers and history come from buffers.
+    int generateOrderedMoves( Connect4Position position, int ply, int hashMove, Connect4SearchBuffers buffers,
+                              int[] moves, int[] keys, int[] columns ) {
+        int     nC          = position.nC();
+        int     nR          = position.nR();
+        int     player      = position.getPlayer();
+        boolean isSymmetric = position.getMirroredRawPosition() == position.getRawPosition();
+        ply = Math.min(ply, MAX_PLY-1);
+        if ( isSymmetric && hashMove >= 0 && 2*(hashMove % nC) > nC-1 ) hashMove = mirrorMove(hashMove, nC);
+
+        int nColumns = position.getPlayableColumns(columns);
+        int nMoves   = 0;
+        for ( int iColumn = 0; iColumn < nColumns; iColumn++ ) {
+            int iC = columns[iColumn];
+            if ( isSymmetric && 2*iC > nC-1 ) break; // Columns come left to right
+            int spot = nC*(nR-1-position.getColumnHeight(iC)) + iC; // The spot a disk lands on
+            int key;
+            if      ( spot == hashMove          ) key = 3 << 28;
+            else if ( spot == buffers.killers[ply][0] ) key = 2 << 28;
+            else if ( spot == buffers.killers[ply][1] ) key = 1 << 28;
+            else {
+                int column = (iC + moveOrderOffset) % nC;
+                key = (buffers.history[player-1][spot] << 4) + nC - Math.abs(2*column - (nC-1)); // Center first
+            }
+            // Insertion sort, highest key first
+            int i = nMoves++;
+            while ( i > 0 && keys[i-1] < key ) { keys[i] = keys[i-1]; moves[i] = moves[i-1]; i--; }
+            keys[i]  = key;
+            moves[i] = spot;
+        }
+        return nMoves;
     }
 
-    @Override
-    public void setMaxSearchTimeForThisPos(int maxTime) {
-        // Not used in this strategy
+    void recordCutoff( Connect4SearchBuffers buffers, int ply, int depth, int player, int move, boolean isFirstMove ) {
+        int[][] killers = buffers.killers;
+        int[][] history = buffers.history;
+        buffers.cutoffCount++;
+        if ( isFirstMove ) buffers.firstMoveCutoffCount++;
+        ply   = Math.min(ply,   MAX_PLY-1);
+        depth = Math.min(depth, MAX_PLY);
+        if ( killers[ply][0] != move ) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+        history[player-1][move] += depth*depth;
+        if ( history[player-1][move] > MAX_HISTORY ) { // Keep keys in range, recent cutoffs count more
+            for ( int[] counts : history ) {
+                for ( int i = 0; i < counts.length; i++ ) counts[i] /= 2;
+            }
+        }
     }
 
-    @Override
-    public float getOpponentBestScoreOnPreviousMoveSoFar() {
-        // Not used in this strategy
-        return 0;
+    static float getAlpha( Connect4SearchInfo context ) {
+        return Math.max( context.getMyBestScoreOnEarlierMoveSoFar(), context.getBestScoreSoFar() );
     }
 
-    @Override
-    public void setOpponentBestScoreOnPreviousMoveSoFar(float scoreToBeat) {
-        // Not used in this strategy
+    static float getBeta( Connect4SearchInfo context ) {
+        return -context.getOpponentBestScoreOnPreviousMoveSoFar();
+    }
+
+    static float scoreOfResult( int isWin, int player ) { // isWinner() result of a finished game, as a score for player
+        if      (isWin == player) return  1;
+        else if (isWin >  0     ) return -1; // isWin == opponent
+        else                      return  0; // Draw
+    }
+
+    // Context for the reply to a move, with the window flipped to the opponent's point of view
+    static Connect4SearchInfo newOpponentContext( Connect4SearchInfo context, float alpha, float beta ) {
+        return setOpponentContext(new Connect4SearchInfo(), context, alpha, beta);
+    }
+
+    // Same, reusing opponentContext (e.g., from an earlier node)
+    static Connect4SearchInfo setOpponentContext( Connect4SearchInfo opponentContext, Connect4SearchInfo context,
+                                                  float alpha, float beta ) {
+        opponentContext.clearResult();
+        opponentContext.setHashMove(-1);
+        opponentContext.setOpponentBestScoreOnPreviousMoveSoFar(alpha);
+        opponentContext.setMyBestScoreOnEarlierMoveSoFar(-beta);
+        opponentContext.setMaxDepthSearchForThisPos(context.getMaxDepthSearchForThisPos()-1);
+        opponentContext.setPly(context.getPly()+1);
+        opponentContext.setAbortFlag(context.getAbortFlag());
+        opponentContext.setBuffers(context.getBuffers());
+        return opponentContext;
+    }
+
+    // A position and its mirror image share one entry, stored under the smaller raw key.
+    // Moves are stored as seen from that key, so they are mirrored on the way in and out.
+    // Depth is how many moves ahead a result looked. Looking past the end of the game is
+    //   the same as looking to the end, so depth is capped at the number of moves left.
+
+    // probe() and store() are for searches that keep their state in a Connect4SearchInfo per node
+    //   (the parallel search near the root); negamax() does the same inline.
+
+    // Fills in context and returns true if the table already settles this position for (alpha,beta)
+    boolean probe( Connect4Position position, Connect4SearchInfo context, float alpha, float beta ) {
+        long    key         = position.getZobristKey();
+        long    mirroredKey = position.getMirroredZobristKey();
+        boolean isMirrored  = mirroredKey < key;
+        long    data        = saved.probe(isMirrored ? mirroredKey : key, 
+                                          position.getExactPosition(isMirrored), position.getExactColors(isMirrored));
+        context.getBuffers().probeCount++;
+        if ( data == Connect4TranspositionTable.MISS ) {
+            return false;
+        }
+        context.getBuffers().hitCount++;
+        int move = Connect4TranspositionTable.moveOf(data);
+        if ( isMirrored ) move = mirrorMove(move, position.nC());
+        context.setHashMove(move); // Worth trying first, even if the entry is too shallow to settle anything
+        if ( Connect4TranspositionTable.depthOf(data) < tableDepth(position, context) ) {
+            return false;
+        }
+        float savedScore = Connect4TranspositionTable.scoreOf(data);
+        int   bound      = Connect4TranspositionTable.boundOf(data);
+        if (    bound == Connect4TranspositionTable.EXACT 
+            || (bound == Connect4TranspositionTable.LOWER && savedScore >= beta )
+            || (bound == Connect4TranspositionTable.UPPER && savedScore <= alpha) ) {
+            InterfaceIterator savedMove = new Connect4Iterator(position.nC(), position.nR());
+            savedMove.set(move % position.nC(), move / position.nC());
+            context.setBestMoveSoFar(savedMove, savedScore);
+            return true;
+        }
+        return false;
+    }
+
+    // Saves the result in context, searched with (alphaOrig,beta), unless the search was aborted
+    void store( Connect4Position position, Connect4SearchInfo context, float alphaOrig, float beta ) {
+        if ( context.isAborted() || context.getBestMoveSoFar() == null ) return;
+        long    key         = position.getZobristKey();
+        long    mirroredKey = position.getMirroredZobristKey();
+        boolean isMirrored  = mirroredKey < key;
+        float best  = context.getBestScoreSoFar();
+        int   bound = best <= alphaOrig ? Connect4TranspositionTable.UPPER
+                    : best >= beta      ? Connect4TranspositionTable.LOWER
+                    :                     Connect4TranspositionTable.EXACT;
+        InterfaceIterator bestMove = context.getBestMoveSoFar();
+        int move = bestMove.nC()*bestMove.iR() + bestMove.iC();
+        if ( isMirrored ) move = mirrorMove(move, position.nC());
+        saved.store(isMirrored ? mirroredKey : key, position.getExactPosition(isMirrored), position.getExactColors(isMirrored),
+                    best, bound, move, tableDepth(position, context));
+        context.getBuffers().storeCount++;
+    }
+
+    private static int tableDepth( Connect4Position position, Connect4SearchInfo context ) {
+        return Math.min(context.getMaxDepthSearchForThisPos(), movesLeft(position));
+    }
+
+    static int mirrorMove( int move, int nC ) { // move is an iterator cell index, nC*iR+iC
+        int iC = move % nC;
+        return move - iC + (nC-1-iC);
     }
 
     @Override
-    public int getClassStateCompacted() {
+    public void setContext(InterfaceSearchInfo strategyContext) {
         // Not used in this strategy
-        return 0/0;
     }
 
     @Override
-    public void setClassStateFromCompacted(int compacted) {
+    public InterfaceSearchInfo getContext() {
         // Not used in this strategy
+        return null;
     }
-
 }
@@ -0,0 +1,168 @@
+package connect4Minimax4x4;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4Tablebase {
+    // Endgame tablebase for boards too big for one Connect4PerfectTable (5x4, 5x5, 6x5, ...),
+    //   built by retrograde analysis, one layer (chip count) at a time, and written to disk as it goes.
+    // Each layer is one range of ranks (Connect4PositionRanking), so it is simply a Connect4ValueArray,
+    //   in connect4-<nC>x<nR>.layer<k>.values: no keys are stored, and no forward pass is needed
+    //   to find which positions there are.
+    // Layer k is solved from the already solved layer k+1, from the full board down, going through it
+    //   CHUNK_SIZE longs (32 positions each) at a time, each chunk split across all cores.
+    //   Every position of the layer is solved, reachable or not; those where the game is over are left UNKNOWN.
+    // Only the values are stored; lookup() finds a best column as Connect4PerfectTable.lookup() does,
+    //   from the values of the children in the next layer.
+    // The ranking reads the bitboards as longs, so only boards that fit in one long
+    //   (up to 7x6, see Connect4Position.isTwoLong()) have a tablebase.
+    // Every file is written under a temporary name and then renamed, so after an interruption
+    //   the generator is simply run again, and picks up after the last complete file.
+    // Red moves first, so the player to move follows from the chip count.
+    //
+    // A strategy probes the tablebase for positions with at least getMinChips() chips, where
+    //   all layers from there to the full board are available.
+
+    static final int CHUNK_SIZE = 1 << 16; // Longs of a layer in memory at once
+
+    private final int                     nC;
+    private final int                     nR;
+    private final Connect4PositionRanking ranking;
+    private final Connect4ValueArray[]    layers;   // By chip count, null if not generated (and for the full board)
+    private final int                     minChips; // Every layer from here up is available
+
+    private static final Map<String,Connect4Tablebase> defaults = new HashMap<>();
+
+    private Connect4Tablebase( File dir, int nC, int nR ) {
+        this.nC = nC;
+        this.nR = nR;
+        ranking = new Connect4PositionRanking(nC, nR);
+        layers  = new Connect4ValueArray[nC*nR+1];
+        int min = nC*nR;
+        for ( int nChips = nC*nR-1; nChips >= 0; nChips-- ) {
+            File file = layerFile(dir, nC, nR, nChips);
+            if ( !file.isFile() ) break;
+            try {
+                Connect4ValueArray layer = Connect4ValueArray.load(file);
+                if ( layer.nC() != nC || layer.nR() != nR || layer.getFirstRank() != ranking.getLayerStart(nChips)
+                     || layer.size() != ranking.getLayerSize(nChips) ) throw new IOException("Not layer "+nChips);
+                layers[nChips] = layer;
+            } catch ( IOException e ) {
+                System.err.println("Error(Connect4Tablebase): cannot read "+file+": "+e.getMessage());
+                break;
+            }
+            min = nChips;
+        }
+        minChips = min;
+    }
+
+    // The tablebase for nC x nR in the working directory (or the directory in -Dconnect4.tables),
+    //   null if not even the last layer has been generated
+    static synchronized Connect4Tablebase getDefault( int nC, int nR ) {
+        String name = nC + "x" + nR;
+        if ( !defaults.containsKey(name) ) {
+            Connect4Tablebase tablebase = Connect4Position.isTwoLong(nC, nR) ? null
+                                        : new Connect4Tablebase(new File(System.getProperty("connect4.tables", ".")), nC, nR);
+            defaults.put(name, tablebase != null && tablebase.minChips < nC*nR ? tablebase : null);
+        }
+        return defaults.get(name);
+    }
+
+    int getMinChips() { return minChips; }
+
+    // Same as Connect4PerfectTable.lookup(), at most nC+1 lookups
+    int lookup( Connect4Position position ) {
+        if ( lookupCode(position) == Connect4ValueArray.UNKNOWN ) return Connect4PerfectTable.MISS;
+        return Connect4PerfectTable.bestEntry(position, ranking, layers[position.getChipCount()+1]);
+    }
+
+    // The value alone, as a Connect4ValueArray code: one lookup
+    int lookupCode( Connect4Position position ) {
+        int nChips = position.getChipCount();
+        if ( nChips < minChips || nChips >= nC*nR || position.nC() != nC || position.nR() != nR ) return Connect4ValueArray.UNKNOWN;
+        return layers[nChips].get(ranking.rank(position));
+    }
+
+    private static File layerFile( File dir, int nC, int nR, int nChips ) {
+        return new File(dir, "connect4-" + nC + "x" + nR + ".layer" + nChips + ".values");
+    }
+
+    // Generator: java connect4Minimax4x4.Connect4Tablebase nC nR [minChips [directory]]
+    //   Solves the layers with at least minChips chips (default: all of them).
+    public static void main( String[] args ) throws IOException {
+        int  nC       = Integer.parseInt(args[0]);
+        int  nR       = Integer.parseInt(args[1]);
+        int  minChips = args.length >= 3 ? Integer.parseInt(args[2]) : 0;
+        File dir      = new File(args.length >= 4 ? args[3] : ".");
+        if ( Connect4Position.isTwoLong(nC, nR) ) {
+            System.err.println("Error(Connect4Tablebase): a "+nC+"x"+nR+" position does not fit in one long, so it cannot be ranked");
+            return;
+        }
+        dir.mkdirs();
+        Connect4PositionRanking ranking = new Connect4PositionRanking(nC, nR);
+        System.out.println("Generating the "+nC+"x"+nR+" tablebase from "+minChips+" chips on "
+                           +Runtime.getRuntime().availableProcessors()+" cores");
+
+        // From the full board down
+        long               startTime = System.nanoTime();
+        Connect4ValueArray next      = null;
+        for ( int nChips = nC*nR-1; nChips >= minChips; nChips-- ) {
+            File file = layerFile(dir, nC, nR, nChips);
+            if ( !file.isFile() ) {
+                solveLayer(nC, nR, ranking, nChips, next, file);
+                System.out.println("  layer "+nChips+": "+ranking.getLayerSize(nChips)+" positions solved");
+            }
+            next = Connect4ValueArray.load(file);
+        }
+        long endTime = System.nanoTime();
+        System.out.println("Done in "+((double)(endTime - startTime)/1000000.0)+" milliseconds");
+    }
+
+    // Solves every position of layer nChips, given the solved layer above (null if every move ends the game),
+    //   and writes them to file in the Connect4ValueArray format
+    private static void solveLayer( int nC, int nR, Connect4PositionRanking ranking, int nChips,
+                                    Connect4ValueArray next, File file ) throws IOException {
+        long layerStart = ranking.getLayerStart(nChips);
+        long layerSize  = ranking.getLayerSize(nChips);
+        long nWords     = (layerSize + 31) / 32;
+        File tmpFile    = new File(file.getPath() + ".tmp");
+        try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))) ) {
+            Connect4ValueArray.writeHeader(out, nC, nR, layerStart, layerSize);
+            for ( long firstWord = 0; firstWord < nWords; firstWord += CHUNK_SIZE ) {
+                long[] words = solveChunk(ranking, layerStart + 32*firstWord, layerStart + layerSize,
+                                          (int)Math.min(CHUNK_SIZE, nWords - firstWord), next);
+                for ( long word : words ) out.writeLong(word);
+            }
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The nWords longs of values from firstRank on (ranks from endRank on are left UNKNOWN), given the solved layer above
+    private static long[] solveChunk( Connect4PositionRanking ranking, long firstRank, long endRank, int nWords,
+                                      Connect4ValueArray next ) {
+        long[] words = new long[nWords];
+        IntStream.range(0, nWords).parallel().forEach(iWord -> {
+            long word = 0;
+            for ( int i = 0; i < 32; i++ ) {
+                long rank = firstRank + 32L*iWord + i;
+                if ( rank >= endRank ) break;
+                Connect4Position position = ranking.unrank(rank);
+                if ( position.isWinner() != -1 ) continue; // Game over: UNKNOWN
+                int value = Connect4PerfectTable.valueOf(Connect4PerfectTable.bestEntry(position, ranking, next));
+                word |= (long)Connect4ValueArray.codeOf(value) << (2*i);
+            }
+            words[iWord] = word;
+        });
+        return words;
+    }
+}
@@ -0,0 +1,110 @@
+package connect4Minimax4x4;
+
+import java.util.Arrays;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4TranspositionTable {
+    // Fixed size table of search results, kept in primitive arrays so that
+    //   nothing is boxed or allocated once the table has been created.
+    // Entries are grouped in buckets of two slots:
+    //   slot 0 is depth-preferred (only replaced by an equal or deeper search)
+    //   slot 1 is always-replace  (takes whatever slot 0 did not keep)
+    // Each entry is 16 bytes: the key and one packed data long
+    //   bits 0..1 bound type, bits 2..7 move (iterator cell index), bits 8..15 depth,
+    //   bits 32..63 the score as Float.floatToIntBits
+    // A data of 0 (MISS) marks an empty slot, which is why bound types start at 1.
+    // The table can be shared by several search threads without any locking:
+    //   the key is stored XOR-ed with its data, so if two threads write the same slot
+    //   at once and the halves get mixed up, the entry simply fails to verify on probe.
+    // Keys are Zobrist keys, so two positions may share one. A verified table (-Dconnect4.verify=true)
+    //   also keeps the exact position of every entry (Connect4Position.getExactPosition() and
+    //   getExactColors(), XOR-ed with the data as well), and a probe only hits if that matches too.
+    //   That makes an entry 32 bytes instead of 16.
+
+    static final int  EXACT = 1; // Score is the true value of the position
+    static final int  LOWER = 2; // Search failed high, true value >= score
+    static final int  UPPER = 3; // Search failed low,  true value <= score
+    static final long MISS  = 0;
+
+    static final int BYTES_PER_ENTRY          = 8 + 8;
+    static final int BYTES_PER_VERIFIED_ENTRY = 8 + 8 + 8 + 8;
+
+    private final long[] keys;
+    private final long[] datas;
+    private final long[] exacts; // Verified tables only: per slot the exact position, then its colors
+    private final int    bucketBits;
+
+    Connect4TranspositionTable( int sizeMB ) { this(sizeMB, Boolean.getBoolean("connect4.verify")); }
+    Connect4TranspositionTable( int sizeMB, boolean isVerified ) {
+        long nEntries = Math.max(2, ((long)sizeMB << 20) / (isVerified ? BYTES_PER_VERIFIED_ENTRY : BYTES_PER_ENTRY));
+        int  bits     = 63 - Long.numberOfLeadingZeros(nEntries/2); // Round buckets down to a power of two
+        bits       = Math.min(bits, 29);
+        bucketBits = bits;
+        keys       = new long[2 << bits];
+        datas      = new long[2 << bits];
+        exacts     = isVerified ? new long[4 << bits] : null;
+    }
+
+    private int bucket( long key ) {
+        return bucketBits == 0 ? 0 : (int)((key * 0x9E3779B97F4A7C15L) >>> (64 - bucketBits));
+    }
+
+    // Returns the packed data stored for key, or MISS if the key is not in the table
+    long probe( long key ) { return probe(key, 0, 0); }
+
+    // Same, for the position exactly given by exact and exactColors (which only a verified table checks)
+    long probe( long key, long exact, long exactColors ) {
+        int  slot = 2*bucket(key);
+        long data = datas[slot]; // Read once, another thread may be writing this slot
+        if ( data != MISS && (keys[slot  ] ^ data) == key && isExact(slot,   data, exact, exactColors) ) return data;
+        data      = datas[slot+1];
+        if ( data != MISS && (keys[slot+1] ^ data) == key && isExact(slot+1, data, exact, exactColors) ) return data;
+        return MISS;
+    }
+
+    private boolean isExact( int slot, long data, long exact, long exactColors ) {
+        return exacts == null || ((exacts[2*slot] ^ data) == exact && (exacts[2*slot+1] ^ data) == exactColors);
+    }
+
+    static float scoreOf( long data ) { return Float.intBitsToFloat((int)(data >>> 32)); }
+    static int   boundOf( long data ) { return (int) data         & 3;   }
+    static int   moveOf(  long data ) { return (int)(data >>>  2) & 63;  }
+    static int   depthOf( long data ) { return (int)(data >>>  8) & 255; }
+
+    static long pack( float score, int bound, int move, int depth ) {
+        return ((long)Float.floatToIntBits(score) << 32) | (Math.min(depth, 255) << 8) | ((move & 63) << 2) | bound;
+    }
+
+    void store( long key, float score, int bound, int move, int depth ) { store(key, 0, 0, score, bound, move, depth); }
+
+    void store( long key, long exact, long exactColors, float score, int bound, int move, int depth ) {
+        int  slot    = 2*bucket(key);
+        long data    = pack(score, bound, move, depth);
+        long oldData = datas[slot];
+        long oldKey  = keys[slot] ^ oldData;
+        if ( oldData == MISS || oldKey == key || depth >= depthOf(oldData) ) {
+            if ( oldData != MISS && oldKey != key ) { // Keep the old deep entry around a bit longer
+                keys[slot+1] = oldKey ^ oldData; datas[slot+1] = oldData;
+                if ( exacts != null ) {
+                    exacts[2*slot+2] = exacts[2*slot  ];
+                    exacts[2*slot+3] = exacts[2*slot+1];
+                }
+            }
+        } else {
+            slot++;
+        }
+        if ( exacts != null ) {
+            exacts[2*slot  ] = exact       ^ data;
+            exacts[2*slot+1] = exactColors ^ data;
+        }
+        keys[ slot] = key ^ data;
+        datas[slot] = data;
+    }
+
+    void clear() {
+        Arrays.fill(datas, MISS);
+    }
+
+    int capacity() { return keys.length; }
+}
@@ -0,0 +1,126 @@
+package connect4Minimax4x4;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Connect4ValueArray {
+    // Game values at 2 bits per position, indexed by Connect4PositionRanking.rank(),
+    //   for the ranks firstRank..firstRank+size-1 (a whole board, or one layer of it).
+    // Codes: 0 unknown, 1 loss, 2 draw, 3 win, for the player to move (value+2).
+    // 32 values share a long, the lowest rank in the lowest bits.
+    // An array is either filled in memory (set() uses compare-and-set, so threads may fill it together)
+    //   and then written, or loaded from a file, which is memory mapped and read in place.
+    //   A file over SEGMENT_SIZE bytes is mapped in several segments.
+    //
+    // File layout (big endian): int MAGIC, int nC, int nR, int 0, long firstRank, long size, then the longs
+
+    static final int MAGIC        = 0x43345641; // "C4VA"
+    static final int HEADER_SIZE  = 32;
+    static final int UNKNOWN      = 0;
+    static final int SEGMENT_SIZE = 1 << 30;    // A multiple of 8, so that no long straddles two segments
+
+    private final int                nC;
+    private final int                nR;
+    private final long               firstRank;
+    private final long               size;
+    private final AtomicLongArray    words;    // In memory, or ...
+    private final MappedByteBuffer[] segments; // ... mapped from a file
+
+    Connect4ValueArray( int nC, int nR, long firstRank, long size ) {
+        if ( (size + 31) / 32 > Integer.MAX_VALUE ) throw new IllegalArgumentException("Too many values for memory");
+        this.nC        = nC;
+        this.nR        = nR;
+        this.firstRank = firstRank;
+        this.size      = size;
+        words          = new AtomicLongArray((int)((size + 31) / 32));
+        segments       = null;
+    }
+
+    private Connect4ValueArray( MappedByteBuffer[] segments ) throws IOException {
+        if ( segments[0].getInt(0) != MAGIC ) throw new IOException("Not a value array");
+        nC             = segments[0].getInt(4);
+        nR             = segments[0].getInt(8);
+        firstRank      = segments[0].getLong(16);
+        size           = segments[0].getLong(24);
+        words          = null;
+        this.segments  = segments;
+    }
+
+    static Connect4ValueArray load( File file ) throws IOException {
+        try ( RandomAccessFile raf = new RandomAccessFile(file, "r") ) {
+            // The mappings stay valid after the channel is closed
+            long               length   = raf.length();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int)((length + SEGMENT_SIZE-1) / SEGMENT_SIZE)];
+            for ( int iSegment = 0; iSegment < segments.length; iSegment++ ) {
+                long start = (long)iSegment*SEGMENT_SIZE;
+                segments[iSegment] = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, start,
+                                                          Math.min(SEGMENT_SIZE, length - start));
+            }
+            if ( segments.length == 0 ) throw new IOException("Empty file");
+            Connect4ValueArray values = new Connect4ValueArray(segments);
+            if ( length != HEADER_SIZE + 8*((values.size + 31) / 32) ) throw new IOException("Wrong length");
+            return values;
+        }
+    }
+
+    int  nC()           { return nC; }
+    int  nR()           { return nR; }
+    long getFirstRank() { return firstRank; }
+    long size()         { return size; }
+
+    int get( long rank ) { // The code stored for rank, UNKNOWN if it is not in this array
+        long index = rank - firstRank;
+        if ( rank < 0 || index < 0 || index >= size ) return UNKNOWN; // rank < 0: not ranked at all
+        return (int)(getWord(index >>> 5) >>> (2*(index & 31))) & 3;
+    }
+
+    private long getWord( long iWord ) {
+        if ( words != null ) return words.get((int)iWord);
+        long offset = HEADER_SIZE + 8*iWord;
+        return segments[(int)(offset / SEGMENT_SIZE)].getLong((int)(offset % SEGMENT_SIZE));
+    }
+
+    static int valueOf( int code ) { return code - 2; } // 1 win, 0 draw, -1 loss; code must not be UNKNOWN
+    static int codeOf( int value ) { return value + 2; }
+
+    void set( long rank, int value ) { // In memory only
+        long index = rank - firstRank;
+        int  iWord = (int)(index >>> 5);
+        int  shift = 2*(int)(index & 31);
+        long word;
+        do {
+            word = words.get(iWord);
+        } while ( !words.compareAndSet(iWord, word, (word & ~(3L << shift)) | ((long)codeOf(value) << shift)) );
+    }
+
+    // Written under a temporary name first, so a file with the final name is always complete
+    void write( File file ) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile))) ) {
+            writeHeader(out, nC, nR, firstRank, size);
+            for ( int iWord = 0; iWord < words.length(); iWord++ ) out.writeLong(words.get(iWord));
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The (size+31)/32 longs follow the header
+    static void writeHeader( DataOutputStream out, int nC, int nR, long firstRank, long size ) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(nC);
+        out.writeInt(nR);
+        out.writeInt(0);
+        out.writeLong(firstRank);
+        out.writeLong(size);
+    }
+}
@@ -1,10 +1,14 @@
 package connect4Minimax4x4;
 
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.animation.TranslateTransition;
 import javafx.application.Platform;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.collections.ObservableList;
 import javafx.event.EventHandler;
+import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.Scene;
@@ -40,6 +44,7 @@ public class Connect4View implements InterfaceView{
      
     private SimpleObjectProperty<Color> playerColorProperty = new SimpleObjectProperty<Color>(Color.RED);
     private final GridPane gridpane = new GridPane();
+    private final Label    statsBar = new Label(); // Statistics of the engine's search, updated while it runs
     private InterfaceControl controller;
 
     Connect4View(InterfaceControl controller) {
@@ -103,6 +108,14 @@ public class Connect4View implements InterfaceView{
         topRow.getChildren().addAll(newGameLabel, newGameButton);
         root.setTop(topRow);
 
+        statsBar.setTextFill(Color.LIGHTGRAY);
+        statsBar.setWrapText(true);
+        statsBar.setPadding(new Insets(4, 8, 4, 8));
+        root.setBottom(statsBar);
+        Timeline statsUpdater = new Timeline(new KeyFrame(Duration.millis(200), (event) -> updateStatsBar()));
+        statsUpdater.setCycleCount(Animation.INDEFINITE);
+        statsUpdater.play();
+
         primaryStage.setScene(scene);
         primaryStage.setResizable(false);
         primaryStage.show();
@@ -216,6 +229,23 @@ public class Connect4View implements InterfaceView{
         }
     }
     
+    private void updateStatsBar() {
+        InterfaceSearchInfo info = controller.getSearchInfo();
+        if ( info == null ) {
+            statsBar.setText("Engine: no search yet");
+            return;
+        }
+        long probes = info.getTableProbes();
+        statsBar.setText(String.format(
+                "Engine: %,d nodes  %,d nodes/s  |  table %,d probes %d%% hits %,d stores  |  "
+              + "%,d cutoffs %d%% first move  |  depth %d  |  %s allocated",
+                info.getNodesSearched(), info.getNodesPerSecond(),
+                probes, probes == 0 ? 0 : 100*info.getTableHits()/probes, info.getTableStores(),
+                info.getCutoffs(), Math.round(100*info.getFirstMoveCutoffRate()),
+                info.getMaxDepthReached(),
+                info.getBytesAllocated() < 0 ? "?" : String.format("%,d KB", info.getBytesAllocated()/1024)));
+    }
+
     private void resetGame() {
         ObservableList<Node> listOfNodes = gridpane.getChildren();
         for(Node node : listOfNodes) {
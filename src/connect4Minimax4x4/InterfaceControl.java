@@ -11,4 +11,5 @@ public interface InterfaceControl {
     void setStrategy( int player, int strategy );
     int getStrategy( int player );
     boolean isBlockManualMove();
+    InterfaceSearchInfo getSearchInfo(); // Of the engine's running (or else last) search, null if none
 }
@@ -4,6 +4,7 @@ package connect4Minimax4x4;
 
 public interface InterfacePosition {
     public long getRawPosition();
+    public long getZobristKey(); // 64 bit hash of the spots and the player (see Zobrist), for any board size
     public int  getColor( InterfaceIterator iPos ); // get color at a spot
     public void setColor( InterfaceIterator iPos, int color ); // set color at a spot
     public void setPlayer( int iPlayer ); // set the player whose move it is
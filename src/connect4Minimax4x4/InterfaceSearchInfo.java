@@ -20,6 +20,16 @@ interface InterfaceSearchInfo{
     void     setOpponentBestScoreOnPreviousMoveSoFar( float scoreToBeat ); // For alpha-beta pruning
     int      getClassStateCompacted();
     void     setClassStateFromCompacted(int compacted);
+    // Statistics of the search, to see what it does. A search may update them while it runs.
+    long     getNodesSearched();
+    long     getNodesPerSecond();
+    long     getTableProbes();         // Transposition table
+    long     getTableHits();
+    long     getTableStores();
+    long     getCutoffs();             // Beta cutoffs
+    float    getFirstMoveCutoffRate(); // Fraction of the cutoffs that came from the first move tried
+    int      getMaxDepthReached();     // Moves below the root
+    long     getBytesAllocated();      // By the searching thread, -1 if unknown
     // Note, not all of these need to be fully implemented. 
     // Ones that are not utilized can be simply empty shells. 
 }
\ No newline at end of file
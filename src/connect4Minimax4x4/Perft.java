@@ -0,0 +1,230 @@
+package connect4Minimax4x4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Perft {
+    // Counts the game tree below a position, ply by ply, like chess "perft":
+    //   java connect4Minimax4x4.Perft connect4|tictactoe depth [nCxnR] [moves] [parallel] [generic]
+    //   nCxnR   : board size for connect4 (default 4x4)
+    //   moves   : moves played from the empty board first, as digits (connect4: columns,
+    //             tictactoe: spots 0-8, 3*iR+iC)
+    //   parallel: split the top plies over all cores, on a fork-join pool
+    //   generic : connect4 through InterfacePosition only (copy, setColor, isWinner()),
+    //             instead of playColumn()/undoColumn(); both must give the same counts
+    // A game that is over is not played on. For every ply it reports the positions reached,
+    //   and how many of them ended the game in a win (for the player who just moved) or a draw.
+    // The counts are a correctness oracle for any new position representation, and the
+    //   nodes per second a measure of raw move generation speed.
+
+    static final int SPLIT_PLIES = 3; // Plies below the root that are split into parallel tasks
+
+    static class Counts {
+        final long[] positions; // [ply], ply 1 = after the first move
+        final long[] wins;
+        final long[] draws;
+
+        Counts( int depth ) {
+            positions = new long[depth+1];
+            wins      = new long[depth+1];
+            draws     = new long[depth+1];
+        }
+
+        void add( Counts other ) {
+            for ( int ply = 0; ply < positions.length; ply++ ) {
+                positions[ply] += other.positions[ply];
+                wins[     ply] += other.wins[     ply];
+                draws[    ply] += other.draws[    ply];
+            }
+        }
+
+        long nodes() {
+            long nodes = 0;
+            for ( long n : positions ) nodes += n;
+            return nodes;
+        }
+    }
+
+    public static void main( String[] args ) {
+        if ( args.length < 2 ) {
+            System.err.println("Usage: java connect4Minimax4x4.Perft connect4|tictactoe depth [nCxnR] [moves] [parallel] [generic]");
+            return;
+        }
+        boolean isConnect4 = args[0].equalsIgnoreCase("connect4");
+        int     depth      = Integer.parseInt(args[1]);
+        int     nC         = 4, nR = 4;
+        String  moves      = "";
+        boolean isParallel = false;
+        boolean isGeneric  = false;
+        for ( int iArg = 2; iArg < args.length; iArg++ ) {
+            String arg = args[iArg];
+            if      ( arg.equals("parallel")   ) isParallel = true;
+            else if ( arg.equals("generic")    ) isGeneric  = true;
+            else if ( arg.matches("\\d+x\\d+") ) {
+                nC = Integer.parseInt(arg.substring(0, arg.indexOf('x')));
+                nR = Integer.parseInt(arg.substring(arg.indexOf('x')+1));
+            } else if ( arg.matches("\\d+")    ) moves = arg;
+            else {
+                System.err.println("Error(Perft): unknown argument "+arg);
+                return;
+            }
+        }
+
+        InterfacePosition position;
+        if ( isConnect4 ) {
+            Connect4Position pos4 = new Connect4Position(nC, nR);
+            pos4.setPlayer(1);
+            for ( char move : moves.toCharArray() ) pos4.playColumn(move - '0');
+            position = pos4;
+        } else {
+            position = new TicTacToePosition();
+            position.setPlayer(1);
+            for ( char move : moves.toCharArray() ) {
+                InterfaceIterator iPos = new TicTacToeIterator();
+                iPos.set((move - '0') % 3, (move - '0') / 3);
+                position.setColor(iPos, position.getPlayer());
+                position.setPlayer(3-position.getPlayer());
+            }
+        }
+
+        long   startTime = System.nanoTime();
+        Counts counts    = isParallel ? perftParallel(position, depth, !isGeneric)
+                                      : perft(position, depth, !isGeneric);
+        long   endTime   = System.nanoTime();
+
+        System.out.println(String.format("%5s %16s %16s %16s", "ply", "positions", "wins", "draws"));
+        for ( int ply = 1; ply <= depth; ply++ ) {
+            System.out.println(String.format("%5d %16d %16d %16d", ply, counts.positions[ply], counts.wins[ply], counts.draws[ply]));
+        }
+        long nTerminal = 0;
+        for ( int ply = 1; ply <= depth; ply++ ) nTerminal += counts.wins[ply] + counts.draws[ply];
+        double seconds = (double)(endTime - startTime)/1000000000.0;
+        System.out.println("Leaves (game not over at depth "+depth+"): "+(counts.positions[depth] - counts.wins[depth] - counts.draws[depth]));
+        System.out.println("Terminal positions:                 "+nTerminal);
+        System.out.println("Nodes:                              "+counts.nodes());
+        System.out.println("Time:                               "+(seconds*1000.0)+" milliseconds");
+        System.out.println("Nodes per second:                   "+(long)(counts.nodes() / seconds));
+    }
+
+    static Counts perft( InterfacePosition position, int depth, boolean isMakeUnmake ) {
+        Counts counts = new Counts(depth);
+        if ( position.isWinner() != -1 ) return counts;
+        if ( isMakeUnmake && position instanceof Connect4Position ) {
+            perftColumns(new Connect4Position(position), 1, depth, counts);
+        } else {
+            perftGeneric(position, 1, depth, counts);
+        }
+        return counts;
+    }
+
+    // Make/unmake, the way Connect4Strategy walks the tree
+    private static void perftColumns( Connect4Position position, int ply, int depth, Counts counts ) {
+        for ( int iC = 0; iC < position.nC(); iC++ ) {
+            if ( !position.canPlay(iC) ) continue;
+            position.playColumn(iC);
+            counts.positions[ply]++;
+            int isWin = position.isWinnerInColumn(iC);
+            if      ( isWin >  0 ) counts.wins[ ply]++;
+            else if ( isWin == 0 ) counts.draws[ply]++;
+            else if ( ply < depth ) perftColumns(position, ply+1, depth, counts);
+            position.undoColumn(iC);
+        }
+    }
+
+    // Through InterfacePosition only, a copy per move
+    private static void perftGeneric( InterfacePosition position, int ply, int depth, Counts counts ) {
+        int player = position.getPlayer();
+        for ( InterfaceIterator iPos = newIterator(position); iPos.isInBounds(); iPos.increment() ) {
+            if ( !isPlayable(position, iPos) ) continue;
+            InterfacePosition posNew = copyOf(position);
+            posNew.setColor(iPos, player);
+            counts.positions[ply]++;
+            int isWin = posNew.isWinner();
+            if      ( isWin >  0 ) counts.wins[ ply]++;
+            else if ( isWin == 0 ) counts.draws[ply]++;
+            else if ( ply < depth ) {
+                posNew.setPlayer(3-player);
+                perftGeneric(posNew, ply+1, depth, counts);
+            }
+        }
+    }
+
+    private static InterfaceIterator newIterator( InterfacePosition position ) {
+        if ( position instanceof Connect4Position ) return new Connect4Iterator(position.nC(), position.nR());
+        return new TicTacToeIterator();
+    }
+
+    private static boolean isPlayable( InterfacePosition position, InterfaceIterator iPos ) {
+        if ( position instanceof Connect4Position ) return ((Connect4Position)position).spotReady(iPos);
+        return position.getColor(iPos) == 0;
+    }
+
+    private static InterfacePosition copyOf( InterfacePosition position ) {
+        if ( position instanceof Connect4Position ) return new Connect4Position(position);
+        return new TicTacToePosition(position);
+    }
+
+    // The first SPLIT_PLIES plies are expanded into tasks, each counting its subtree single threaded
+    static Counts perftParallel( InterfacePosition position, int depth, boolean isMakeUnmake ) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            Counts counts = new Counts(depth);
+            if ( position.isWinner() != -1 ) return counts;
+            return pool.invoke(new PerftTask(position, 1, depth, isMakeUnmake));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class PerftTask extends RecursiveTask<Counts> {
+        private static final long serialVersionUID = 1L;
+        private final InterfacePosition position; // Not over, ply-1 moves below the root
+        private final int               ply;
+        private final int               depth;
+        private final boolean           isMakeUnmake;
+
+        PerftTask( InterfacePosition position, int ply, int depth, boolean isMakeUnmake ) {
+            this.position     = position;
+            this.ply          = ply;
+            this.depth        = depth;
+            this.isMakeUnmake = isMakeUnmake;
+        }
+
+        @Override
+        protected Counts compute() {
+            Counts counts = new Counts(depth);
+            if ( ply > SPLIT_PLIES || ply == depth ) {
+                if ( isMakeUnmake && position instanceof Connect4Position ) {
+                    perftColumns(new Connect4Position(position), ply, depth, counts);
+                } else {
+                    perftGeneric(position, ply, depth, counts);
+                }
+                return counts;
+            }
+
+            int player = position.getPlayer();
+            List<PerftTask> tasks = new ArrayList<>();
+            for ( InterfaceIterator iPos = newIterator(position); iPos.isInBounds(); iPos.increment() ) {
+                if ( !isPlayable(position, iPos) ) continue;
+                InterfacePosition posNew = copyOf(position);
+                posNew.setColor(iPos, player);
+                counts.positions[ply]++;
+                int isWin = posNew.isWinner();
+                if      ( isWin >  0 ) counts.wins[ ply]++;
+                else if ( isWin == 0 ) counts.draws[ply]++;
+                else {
+                    posNew.setPlayer(3-player);
+                    PerftTask task = new PerftTask(posNew, ply+1, depth, isMakeUnmake);
+                    task.fork();
+                    tasks.add(task);
+                }
+            }
+            for ( PerftTask task : tasks ) counts.add(task.join());
+            return counts;
+        }
+    }
+}
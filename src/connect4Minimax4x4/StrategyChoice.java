@@ -44,7 +44,7 @@ class StrategyChoice extends HBox {
         //Label label0 = new Label("Strategy: ");  label0.setTextFill(color);
         Label label1 = new Label("player1:"  );  label1.setTextFill(color);
         Label label2 = new Label("player2:"  );  label2.setTextFill(color);
-        final String [] choices = new String[] { "Manual", "StrtgyA" };
+        final String [] choices = new String[] { "Manual", "StrtgyA", "MCTS", "StrtgyA YBW", "StrtgyA SMP" };
         ChoiceBox cb1 = new ChoiceBox(FXCollections.observableArrayList( choices ) ); 
         ChoiceBox cb2 = new ChoiceBox(FXCollections.observableArrayList( choices ) ); 
         cb1.getSelectionModel().select(controller.getStrategy(1)); // Set to first  player's strategy
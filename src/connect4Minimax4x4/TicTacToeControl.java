@@ -109,4 +109,10 @@ public class TicTacToeControl implements InterfaceControl{
         System.err.println("Error: TicTacToeControl::isBlockManualMove is not implemented!!!");
         return false;
     }
+
+    @Override
+    public InterfaceSearchInfo getSearchInfo() {
+        // Not used in this game
+        return null;
+    }
 }
@@ -10,8 +10,10 @@ public class TicTacToePosition implements InterfacePosition {
     
     // Rightmost 18=9*2 store color (each 2 bits stores 0,1,2; so it is a little lossy)
     // Leftmost 1 bit stores player (1 or 2)
+    // The Zobrist key (see Zobrist) is kept alongside, with spot 3*iR+iC
 
-    private int position;
+    private int  position;
+    private long zobrist = 0;
     
     TicTacToePosition() {
         position = 0;
@@ -19,6 +21,8 @@ public class TicTacToePosition implements InterfacePosition {
 
     TicTacToePosition( InterfacePosition pos ) {
         position = (int) pos.getRawPosition();
+        for ( int iSpot = 0; iSpot < 9; iSpot++ ) zobrist ^= Zobrist.spot(iSpot, getColor(iSpot%3, iSpot/3));
+        if ( getPlayer() == 2 ) zobrist ^= Zobrist.PLAYER2;
     }
 
     @Override public int nC() { return 3; }
@@ -29,6 +33,11 @@ public class TicTacToePosition implements InterfacePosition {
         return position;
     }
 
+    @Override
+    public long getZobristKey() {
+        return zobrist;
+    }
+
     @Override
     public int getColor( InterfaceIterator iPos ) { // 0 if empty, 1 if x(cross), 2 if o(nought)
         int  iC  = iPos.iC();
@@ -50,6 +59,7 @@ public class TicTacToePosition implements InterfacePosition {
         } else {
             int powerOf4 = 3*iR+iC;
             position += color << ( 2*powerOf4 );
+            zobrist  ^= Zobrist.spot(powerOf4, color);
         }
     }
 
@@ -91,6 +101,7 @@ public class TicTacToePosition implements InterfacePosition {
     @Override
     public void reset() {
         position = 0;
+        zobrist  = 0;
     }
 
     @Override
@@ -101,6 +112,7 @@ public class TicTacToePosition implements InterfacePosition {
             int  currentPlayer = getPlayer();
             if ( currentPlayer != iPlayer ) {
                 position ^= 1L << 31;
+                zobrist  ^= Zobrist.PLAYER2;
             }
         }
     }
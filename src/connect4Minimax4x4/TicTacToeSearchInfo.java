@@ -67,6 +67,60 @@ class TicTacToeSearchInfo implements InterfaceSearchInfo {
         // Not used in this strategy
     }
 
+    @Override
+    public long getNodesSearched() {
+        // Not used in this strategy
+        return 0;
+    }
+
+    @Override
+    public long getNodesPerSecond() {
+        // Not used in this strategy
+        return 0;
+    }
+
+    @Override
+    public long getTableProbes() {
+        // Not used in this strategy
+        return 0;
+    }
+
+    @Override
+    public long getTableHits() {
+        // Not used in this strategy
+        return 0;
+    }
+
+    @Override
+    public long getTableStores() {
+        // Not used in this strategy
+        return 0;
+    }
+
+    @Override
+    public long getCutoffs() {
+        // Not used in this strategy
+        return 0;
+    }
+
+    @Override
+    public float getFirstMoveCutoffRate() {
+        // Not used in this strategy
+        return 0;
+    }
+
+    @Override
+    public int getMaxDepthReached() {
+        // Not used in this strategy
+        return 0;
+    }
+
+    @Override
+    public long getBytesAllocated() {
+        // Not used in this strategy
+        return 0;
+    }
+
     @Override
     public int getClassStateCompacted() {
         // Not yet used
@@ -0,0 +1,28 @@
+package connect4Minimax4x4;
+
+import java.util.SplittableRandom;
+
+//author: Gary Kalmanovich; rights reserved
+
+class Zobrist {
+    // Random numbers for Zobrist keys (InterfacePosition.getZobristKey()), shared by every game:
+    //   the key of a position is the XOR of spot(iSpot, color) over its filled spots,
+    //   and of PLAYER2 if the second player is to move.
+    // So a piece placed or taken away, or the turn passed, changes the key by a single XOR,
+    //   whatever the size of the board.
+    // The numbers come from a fixed seed, so a position has the same key in every run.
+
+    static final int MAX_SPOTS  = 64;
+    static final int MAX_COLORS = 4; // Colors 1..MAX_COLORS (e.g., for checkers, men and kings of both sides)
+
+    static final long PLAYER2;
+    private static final long[] SPOTS = new long[(MAX_COLORS+1)*MAX_SPOTS]; // Color 0 (empty) stays 0
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x2B7E151628AED2A6L);
+        for ( int i = MAX_SPOTS; i < SPOTS.length; i++ ) SPOTS[i] = random.nextLong();
+        PLAYER2 = random.nextLong();
+    }
+
+    static long spot( int iSpot, int color ) { return SPOTS[color*MAX_SPOTS + iSpot]; }
+}